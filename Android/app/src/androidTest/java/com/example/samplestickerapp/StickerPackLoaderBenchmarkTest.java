@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Wall-clock time of loading and validating the bundled packs, and a 500 pack catalog made of
+ * copies of them, on one thread and on the loader's pool of 4. Results are logged with the tag
+ * StickerPackLoaderBenchmark, run on a device with ./gradlew connectedAndroidTest.
+ */
+public class StickerPackLoaderBenchmarkTest {
+    private static final String TAG = "StickerPackLoaderBenchmark";
+    private static final int SYNTHETIC_PACK_COUNT = 500;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void bundledPacks() {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final StickerCatalogRepository repository = StickerCatalogRepository.getInstance(context);
+        benchmark(context, "bundled", () -> repository.copyStickerPacks());
+    }
+
+    @Test
+    public void syntheticCatalog() {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final StickerCatalogRepository repository = StickerCatalogRepository.getInstance(context);
+        //the packs keep the bundled identifiers so their files are served, only the catalog grows.
+        benchmark(context, "synthetic", () -> {
+            final List<StickerPack> stickerPacks = new ArrayList<>(SYNTHETIC_PACK_COUNT);
+            while (stickerPacks.size() < SYNTHETIC_PACK_COUNT) {
+                final List<StickerPack> copies = repository.copyStickerPacks();
+                stickerPacks.addAll(copies.subList(0, Math.min(copies.size(), SYNTHETIC_PACK_COUNT - stickerPacks.size())));
+            }
+            return stickerPacks;
+        });
+    }
+
+    private interface StickerPackSource {
+        List<StickerPack> copyStickerPacks();
+    }
+
+    //the best of a few rounds for each thread count, the rounds alternate so both see the same caches.
+    private static void benchmark(Context context, String name, StickerPackSource source) {
+        final List<StickerPack> warmUp = source.copyStickerPacks();
+        assertFalse(warmUp.isEmpty());
+        StickerPackLoader.loadStickerPacks(context, warmUp, 1);
+        long sequentialMillis = Long.MAX_VALUE;
+        long parallelMillis = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            sequentialMillis = Math.min(sequentialMillis, time(context, source.copyStickerPacks(), 1));
+            parallelMillis = Math.min(parallelMillis, time(context, source.copyStickerPacks(), 4));
+        }
+        Log.i(TAG, name + ": " + warmUp.size() + " packs, 1 thread " + sequentialMillis + " ms, 4 threads " + parallelMillis + " ms");
+    }
+
+    private static long time(Context context, List<StickerPack> stickerPacks, int parallelism) {
+        final long start = SystemClock.elapsedRealtime();
+        StickerPackLoader.loadStickerPacks(context, stickerPacks, parallelism);
+        return SystemClock.elapsedRealtime() - start;
+    }
+}
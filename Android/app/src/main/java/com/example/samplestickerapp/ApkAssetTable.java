@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Where each uncompressed asset sits in the apk, read once from the zip central directory. Sticker
+ * files are stored uncompressed (see noCompress in build.gradle), so they can be served as ranges of
+ * one apk file descriptor that is kept open, instead of going through AssetManager.openFd for every
+ * request.
+ * <p>
+ * Only the central directory is read when the table is opened. Where an asset's data starts depends on
+ * its local header, which is read the first time the asset's start offset is asked for, so opening the
+ * table costs the same two reads whatever the number of assets.
+ * <p>
+ * Compressed assets, zip64 archives and anything that does not look like a plain zip are left out of
+ * the table, callers fall back to AssetManager for those.
+ */
+class ApkAssetTable {
+    static final long UNKNOWN = -1;
+    private static final long UNRESOLVED = -2;
+    private static final String TAG = "ApkAssetTable";
+
+    private static final String ASSETS_PREFIX = "assets/";
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int METHOD_STORED = 0;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int PAGE_SIZE = 4096;
+
+    @NonNull
+    private final File apk;
+    @NonNull
+    private final ParcelFileDescriptor apkFileDescriptor;
+    @NonNull
+    private final FileChannel channel;
+    private final long size;
+    @NonNull
+    private final Map<String, Entry> entries;
+
+    private ApkAssetTable(@NonNull File apk, @NonNull ParcelFileDescriptor apkFileDescriptor, @NonNull FileChannel channel, long size, @NonNull Map<String, Entry> entries) {
+        this.apk = apk;
+        this.apkFileDescriptor = apkFileDescriptor;
+        this.channel = channel;
+        this.size = size;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens the apk and reads the position of its uncompressed assets. The file descriptor stays open
+     * for the lifetime of the process, the apk does not change while it runs.
+     */
+    @NonNull
+    static ApkAssetTable open(@NonNull File apk) throws IOException, IllegalStateException {
+        final ParcelFileDescriptor apkFileDescriptor = ParcelFileDescriptor.open(apk, ParcelFileDescriptor.MODE_READ_ONLY);
+        try {
+            //the stream is not closed, it would close the descriptor that is kept open.
+            final FileChannel channel = new FileInputStream(apkFileDescriptor.getFileDescriptor()).getChannel();
+            final long size = channel.size();
+            return new ApkAssetTable(apk, apkFileDescriptor, channel, size, readEntries(channel, size));
+        } catch (IOException | IllegalStateException e) {
+            apkFileDescriptor.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start offset of the asset in the apk, {@link #UNKNOWN} if it is not in the table or its local
+     * header cannot be read. The local header is read on the first call for each asset.
+     */
+    long getStartOffset(@NonNull String assetPath) {
+        final Entry entry = entries.get(assetPath);
+        if (entry == null) {
+            return UNKNOWN;
+        }
+        long dataOffset = entry.dataOffset;
+        if (dataOffset == UNRESOLVED) {
+            //racing threads read the same header and store the same offset.
+            dataOffset = readDataOffset(assetPath, entry);
+            entry.dataOffset = dataOffset;
+        }
+        return dataOffset;
+    }
+
+    /**
+     * Length of the asset, {@link #UNKNOWN} if it is not in the table.
+     */
+    long getLength(@NonNull String assetPath) {
+        final Entry entry = entries.get(assetPath);
+        return entry != null ? entry.length : UNKNOWN;
+    }
+
+    /**
+     * The apk the offsets are in, for callers that open their own descriptor of it.
+     */
+    @NonNull
+    File getApk() {
+        return apk;
+    }
+
+    /**
+     * The descriptor is duplicated, since the one handed out is closed once it is sent to the caller.
+     */
+    @NonNull
+    AssetFileDescriptor openFd(long startOffset, long length) throws IOException {
+        return new AssetFileDescriptor(apkFileDescriptor.dup(), startOffset, length);
+    }
+
+    /**
+     * Reads a byte of every page of the range, which has the kernel bring it into the page cache.
+     */
+    void touch(long startOffset, long length) throws IOException {
+        final byte[] buffer = new byte[1];
+        try {
+            for (long position = startOffset; position < startOffset + length; position += PAGE_SIZE) {
+                Os.pread(apkFileDescriptor.getFileDescriptor(), buffer, 0, 1, position);
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("cannot read apk", e);
+        }
+    }
+
+    //the extra field of the local header can differ from the central one, apk alignment pads it.
+    private long readDataOffset(@NonNull String assetPath, @NonNull Entry entry) {
+        final ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            readFully(channel, localHeader, entry.localHeaderOffset);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot read the local header of " + assetPath, e);
+            return UNKNOWN;
+        }
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            Log.w(TAG, "apk local header is malformed for " + assetPath);
+            return UNKNOWN;
+        }
+        final long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + (localHeader.getShort(26) & 0xffff) + (localHeader.getShort(28) & 0xffff);
+        return dataOffset + entry.length <= size ? dataOffset : UNKNOWN;
+    }
+
+    @NonNull
+    private static Map<String, Entry> readEntries(@NonNull FileChannel channel, long size) throws IOException, IllegalStateException {
+        final int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_LENGTH);
+        final ByteBuffer tail = read(channel, size - tailLength, tailLength);
+        int endOfCentralDirectory = -1;
+        for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endOfCentralDirectory = i;
+                break;
+            }
+        }
+        if (endOfCentralDirectory < 0) {
+            throw new IllegalStateException("apk has no zip central directory");
+        }
+        final int entryCount = tail.getShort(endOfCentralDirectory + 10) & 0xffff;
+        final long centralDirectorySize = tail.getInt(endOfCentralDirectory + 12) & 0xffffffffL;
+        final long centralDirectoryOffset = tail.getInt(endOfCentralDirectory + 16) & 0xffffffffL;
+        if (centralDirectoryOffset + centralDirectorySize > size) {
+            throw new IllegalStateException("apk central directory is out of bounds, it may be a zip64 archive");
+        }
+        final ByteBuffer centralDirectory = read(channel, centralDirectoryOffset, (int) centralDirectorySize);
+        final Map<String, Entry> entries = new HashMap<>(entryCount * 2);
+        int position = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (position + CENTRAL_DIRECTORY_HEADER_SIZE > centralDirectory.limit() || centralDirectory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new IllegalStateException("apk central directory is malformed at entry " + i);
+            }
+            final int method = centralDirectory.getShort(position + 10) & 0xffff;
+            final long compressedSize = centralDirectory.getInt(position + 20) & 0xffffffffL;
+            final int nameLength = centralDirectory.getShort(position + 28) & 0xffff;
+            final int extraLength = centralDirectory.getShort(position + 30) & 0xffff;
+            final int commentLength = centralDirectory.getShort(position + 32) & 0xffff;
+            final long localHeaderOffset = centralDirectory.getInt(position + 42) & 0xffffffffL;
+            final String name = new String(centralDirectory.array(), position + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength, UTF_8);
+            position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (method != METHOD_STORED || !name.startsWith(ASSETS_PREFIX)) {
+                continue;
+            }
+            //the data cannot start before the end of the local header, whatever its extra field.
+            if (localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + compressedSize <= size) {
+                entries.put(name.substring(ASSETS_PREFIX.length()), new Entry(localHeaderOffset, compressedSize));
+            }
+        }
+        return entries;
+    }
+
+    @NonNull
+    private static ByteBuffer read(@NonNull FileChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer, position);
+        return buffer;
+    }
+
+    private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("unexpected end of apk");
+            }
+        }
+    }
+
+    private static class Entry {
+        final long localHeaderOffset;
+        final long length;
+        // UNRESOLVED until the local header was read, UNKNOWN if it could not be.
+        volatile long dataOffset = UNRESOLVED;
+
+        Entry(long localHeaderOffset, long length) {
+            this.localHeaderOffset = localHeaderOffset;
+            this.length = length;
+        }
+    }
+}
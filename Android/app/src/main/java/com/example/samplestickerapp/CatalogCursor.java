@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.database.AbstractCursor;
+import android.database.CursorWindow;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Read-only cursor whose values are read straight from the catalog objects instead of being copied
+ * into per-row arrays like MatrixCursor does. Columns hold either strings, which can be null, or
+ * integers, which keeps the types WhatsApp reads unchanged.
+ * <p>
+ * Only the projected columns are exposed, so a caller asking for a few columns only gets those in
+ * the window. When the cursor is sent to another process, {@link #fillWindow} writes the typed values
+ * into the window directly rather than going through the generic per-cell type checks.
+ * <p>
+ * A cursor can be limited to a page of its rows with {@link #setPage}, it then reports the number of
+ * rows without paging under {@link #EXTRA_TOTAL_COUNT} in its extras.
+ */
+abstract class CatalogCursor extends AbstractCursor {
+    // the value of ContentResolver.EXTRA_TOTAL_COUNT, which is only available from api 26.
+    static final String EXTRA_TOTAL_COUNT = "android.content.extra.TOTAL_COUNT";
+
+    @NonNull
+    private final String[] columnNames;
+    // index in all the columns of each projected column.
+    @NonNull
+    private final int[] columns;
+    // first row of the page and number of rows in it, -1 when the cursor is not paged.
+    private int pageOffset;
+    private int pageCount = -1;
+    @NonNull
+    private Bundle extras = Bundle.EMPTY;
+
+    /**
+     * @param projection the columns to return, all of them are returned if it is null or names a
+     *                   column that does not exist.
+     */
+    CatalogCursor(@NonNull String[] allColumnNames, @Nullable String[] projection) {
+        int[] columns = projection != null && projection.length > 0 ? project(allColumnNames, projection) : null;
+        if (columns == null) {
+            columns = new int[allColumnNames.length];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = i;
+            }
+            this.columnNames = allColumnNames;
+        } else {
+            this.columnNames = projection.clone();
+        }
+        this.columns = columns;
+    }
+
+    @Nullable
+    private static int[] project(@NonNull String[] allColumnNames, @NonNull String[] projection) {
+        final int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = -1;
+            for (int column = 0; column < allColumnNames.length; column++) {
+                if (allColumnNames[column].equals(projection[i])) {
+                    columns[i] = column;
+                    break;
+                }
+            }
+            if (columns[i] < 0) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Limits the cursor to limit rows from offset on, fewer if there are not that many left. Must be
+     * called before the cursor is read.
+     */
+    void setPage(int offset, int limit) {
+        final int rowCount = getRowCount();
+        pageOffset = Math.min(Math.max(offset, 0), rowCount);
+        pageCount = Math.min(Math.max(limit, 0), rowCount - pageOffset);
+        extras = new Bundle();
+        extras.putInt(EXTRA_TOTAL_COUNT, rowCount);
+    }
+
+    /**
+     * Number of rows before paging.
+     */
+    abstract int getRowCount();
+
+    /**
+     * Row indexes passed to the methods below are indexes in all the rows, not in the page, and
+     * column indexes are indexes in all the columns, not in the projection.
+     */
+    abstract boolean isIntegerColumn(int column);
+
+    /**
+     * Value of a string column.
+     */
+    @Nullable
+    abstract String getStringValue(int row, int column);
+
+    /**
+     * Value of an integer column.
+     */
+    abstract long getLongValue(int row, int column);
+
+    @Override
+    public int getCount() {
+        return pageCount >= 0 ? pageCount : getRowCount();
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return extras;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        final int row = checkRow(column);
+        column = columns[column];
+        return isIntegerColumn(column) ? Long.toString(getLongValue(row, column)) : getStringValue(row, column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        final int row = checkRow(column);
+        column = columns[column];
+        if (isIntegerColumn(column)) {
+            return getLongValue(row, column);
+        }
+        final String value = getStringValue(row, column);
+        return value != null ? Long.parseLong(value) : 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        final int row = checkRow(column);
+        column = columns[column];
+        if (isIntegerColumn(column)) {
+            return getLongValue(row, column);
+        }
+        final String value = getStringValue(row, column);
+        return value != null ? Double.parseDouble(value) : 0;
+    }
+
+    @Override
+    public int getType(int column) {
+        final int row = checkRow(column);
+        column = columns[column];
+        if (isIntegerColumn(column)) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return getStringValue(row, column) != null ? FIELD_TYPE_STRING : FIELD_TYPE_NULL;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        final int row = checkRow(column);
+        column = columns[column];
+        return !isIntegerColumn(column) && getStringValue(row, column) == null;
+    }
+
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        final int count = getCount();
+        if (position < 0 || position >= count) {
+            return;
+        }
+        final int columnCount = columnNames.length;
+        window.acquireReference();
+        try {
+            window.clear();
+            window.setStartPosition(position);
+            window.setNumColumns(columnCount);
+            //rows are filled until the window is full, the rest is sent in the next window.
+            for (int row = position; row < count; row++) {
+                if (!window.allocRow()) {
+                    break;
+                }
+                if (!putRow(window, row, pageOffset + row, columnCount)) {
+                    window.freeLastRow();
+                    break;
+                }
+            }
+        } finally {
+            window.releaseReference();
+        }
+    }
+
+    private boolean putRow(@NonNull CursorWindow window, int position, int row, int columnCount) {
+        for (int windowColumn = 0; windowColumn < columnCount; windowColumn++) {
+            final int column = columns[windowColumn];
+            final boolean put;
+            if (isIntegerColumn(column)) {
+                put = window.putLong(getLongValue(row, column), position, windowColumn);
+            } else {
+                final String value = getStringValue(row, column);
+                put = value != null ? window.putString(value, position, windowColumn) : window.putNull(position, windowColumn);
+            }
+            if (!put) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int checkRow(int column) {
+        if (column < 0 || column >= columnNames.length) {
+            throw new IndexOutOfBoundsException("requested column: " + column + ", # of columns: " + columnNames.length);
+        }
+        checkPosition();
+        return pageOffset + mPos;
+    }
+}
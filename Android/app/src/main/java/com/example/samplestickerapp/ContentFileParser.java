@@ -12,6 +12,7 @@ import android.text.TextUtils;
 import android.util.JsonReader;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -59,9 +60,10 @@ class ContentFileParser {
         if (stickerPackList.isEmpty()) {
             throw new IllegalStateException("sticker pack list cannot be empty");
         }
+        final StickerStringPool stringPool = StickerStringPool.getInstance();
         for (StickerPack stickerPack : stickerPackList) {
-            stickerPack.setAndroidPlayStoreLink(androidPlayStoreLink);
-            stickerPack.setIosAppStoreLink(iosAppStoreLink);
+            stickerPack.setAndroidPlayStoreLink(stringPool.intern(androidPlayStoreLink));
+            stickerPack.setIosAppStoreLink(stringPool.intern(iosAppStoreLink));
         }
         return stickerPackList;
     }
@@ -124,6 +126,25 @@ class ContentFileParser {
                     reader.skipValue();
             }
         }
+        verifyStickerPackHeader(identifier, name, publisher, trayImageFile, imageDataVersion, stickerList != null && !stickerList.isEmpty());
+        reader.endObject();
+        final StickerPack stickerPack = newStickerPack(identifier, name, publisher, trayImageFile, publisherEmail, publisherWebsite, privacyPolicyWebsite, licenseAgreementWebsite, imageDataVersion, avoidCache, animatedStickerPack);
+        stickerPack.setStickers(stickerList);
+        return stickerPack;
+    }
+
+    /**
+     * Creates a pack with the values that repeat across packs taken from the {@link StickerStringPool}.
+     */
+    @NonNull
+    static StickerPack newStickerPack(String identifier, String name, String publisher, String trayImageFile, String publisherEmail, String publisherWebsite, String privacyPolicyWebsite, String licenseAgreementWebsite, String imageDataVersion, boolean avoidCache, boolean animatedStickerPack) {
+        final StickerStringPool stringPool = StickerStringPool.getInstance();
+        return new StickerPack(identifier, name, stringPool.intern(publisher), stringPool.intern(trayImageFile), stringPool.intern(publisherEmail),
+                stringPool.intern(publisherWebsite), stringPool.intern(privacyPolicyWebsite), stringPool.intern(licenseAgreementWebsite),
+                stringPool.intern(imageDataVersion), avoidCache, animatedStickerPack);
+    }
+
+    static void verifyStickerPackHeader(String identifier, String name, String publisher, String trayImageFile, String imageDataVersion, boolean hasStickers) throws IllegalStateException {
         if (TextUtils.isEmpty(identifier)) {
             throw new IllegalStateException("identifier cannot be empty");
         }
@@ -136,7 +157,7 @@ class ContentFileParser {
         if (TextUtils.isEmpty(trayImageFile)) {
             throw new IllegalStateException("tray_image_file cannot be empty");
         }
-        if (stickerList == null || stickerList.isEmpty()) {
+        if (!hasStickers) {
             throw new IllegalStateException("sticker list is empty");
         }
         if (identifier == null || identifier.contains("..") || identifier.contains("/")) {
@@ -145,22 +166,33 @@ class ContentFileParser {
         if (TextUtils.isEmpty(imageDataVersion)) {
             throw new IllegalStateException("image_data_version should not be empty");
         }
-        reader.endObject();
-        final StickerPack stickerPack = new StickerPack(identifier, name, publisher, trayImageFile, publisherEmail, publisherWebsite, privacyPolicyWebsite, licenseAgreementWebsite, imageDataVersion, avoidCache, animatedStickerPack);
-        stickerPack.setStickers(stickerList);
-        return stickerPack;
+    }
+
+    static void verifyStickerImageFile(@Nullable String imageFile) throws IllegalStateException {
+        if (imageFile == null || TextUtils.isEmpty(imageFile)) {
+            throw new IllegalStateException("sticker image_file cannot be empty");
+        }
+        if (!imageFile.endsWith(".webp")) {
+            throw new IllegalStateException("image file for stickers should be webp files, image file is: " + imageFile);
+        }
+        if (imageFile.contains("..") || imageFile.contains("/")) {
+            throw new IllegalStateException("the file name should not contain .. or / to prevent directory traversal, image file is:" + imageFile);
+        }
     }
 
     @NonNull
-    private static List<Sticker> readStickers(@NonNull JsonReader reader) throws IOException, IllegalStateException {
+    static List<Sticker> readStickers(@NonNull JsonReader reader) throws IOException, IllegalStateException {
         reader.beginArray();
         List<Sticker> stickerList = new ArrayList<>();
+        final StickerStringPool stringPool = StickerStringPool.getInstance();
+        //reused for every sticker, the pool hands out a shared immutable list instead.
+        final List<String> emojis = new ArrayList<>(StickerPackValidator.EMOJI_MAX_LIMIT);
 
         while (reader.hasNext()) {
             reader.beginObject();
             String imageFile = null;
             String accessibilityText = null;
-            List<String> emojis = new ArrayList<>(StickerPackValidator.EMOJI_MAX_LIMIT);
+            emojis.clear();
             while (reader.hasNext()) {
                 final String key = reader.nextName();
                 if (FIELD_STICKER_IMAGE_FILE.equals(key)) {
@@ -181,16 +213,8 @@ class ContentFileParser {
                 }
             }
             reader.endObject();
-            if (imageFile == null || TextUtils.isEmpty(imageFile)) {
-                throw new IllegalStateException("sticker image_file cannot be empty");
-            }
-            if (!imageFile.endsWith(".webp")) {
-                throw new IllegalStateException("image file for stickers should be webp files, image file is: " + imageFile);
-            }
-            if (imageFile.contains("..") || imageFile.contains("/")) {
-                throw new IllegalStateException("the file name should not contain .. or / to prevent directory traversal, image file is:" + imageFile);
-            }
-            stickerList.add(new Sticker(imageFile, emojis, accessibilityText));
+            verifyStickerImageFile(imageFile);
+            stickerList.add(new Sticker(stringPool.intern(imageFile), stringPool.internEmojis(emojis), accessibilityText));
         }
         reader.endArray();
         return stickerList;
@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.util.JsonReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses contents.json one sticker pack at a time. A single pass over the raw utf-8 bytes reads the
+ * header fields of every pack, and checks its stickers array the way
+ * {@link ContentFileParser#readStickers} does without creating any sticker, recording where it starts
+ * and ends. The array is parsed into stickers the first time the pack's stickers are asked for, so a
+ * catalog with a malformed sticker fails to load instead of failing whoever asks for that pack first,
+ * and only the pass over the bytes, not the stickers, is paid at start-up.
+ */
+class LazyContentFileParser {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @NonNull
+    private final byte[] contents;
+    private int position;
+
+    private LazyContentFileParser(@NonNull byte[] contents) {
+        this.contents = contents;
+    }
+
+    @NonNull
+    static List<StickerPack> parseStickerPacks(@NonNull InputStream contentsInputStream) throws IOException, IllegalStateException {
+        return new LazyContentFileParser(readFully(contentsInputStream)).readStickerPacks();
+    }
+
+    @NonNull
+    private static byte[] readFully(@NonNull InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(inputStream.available(), 16384));
+        int read;
+        byte[] data = new byte[16384];
+        while ((read = inputStream.read(data, 0, data.length)) != -1) {
+            buffer.write(data, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+
+    @NonNull
+    private List<StickerPack> readStickerPacks() throws IllegalStateException {
+        List<StickerPack> stickerPackList = new ArrayList<>();
+        String androidPlayStoreLink = null;
+        String iosAppStoreLink = null;
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                final String key = readString();
+                expect(':');
+                if ("android_play_store_link".equals(key)) {
+                    androidPlayStoreLink = readStringValue();
+                } else if ("ios_app_store_link".equals(key)) {
+                    iosAppStoreLink = readStringValue();
+                } else if ("sticker_packs".equals(key)) {
+                    expect('[');
+                    if (!consumeIf(']')) {
+                        do {
+                            stickerPackList.add(readStickerPack());
+                        } while (consumeIf(','));
+                        expect(']');
+                    }
+                } else {
+                    throw new IllegalStateException("unknown field in json: " + key);
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+        if (stickerPackList.isEmpty()) {
+            throw new IllegalStateException("sticker pack list cannot be empty");
+        }
+        final StickerStringPool stringPool = StickerStringPool.getInstance();
+        for (StickerPack stickerPack : stickerPackList) {
+            stickerPack.setAndroidPlayStoreLink(stringPool.intern(androidPlayStoreLink));
+            stickerPack.setIosAppStoreLink(stringPool.intern(iosAppStoreLink));
+        }
+        return stickerPackList;
+    }
+
+    @NonNull
+    private StickerPack readStickerPack() throws IllegalStateException {
+        String identifier = null;
+        String name = null;
+        String publisher = null;
+        String trayImageFile = null;
+        String publisherEmail = null;
+        String publisherWebsite = null;
+        String privacyPolicyWebsite = null;
+        String licenseAgreementWebsite = null;
+        String imageDataVersion = "";
+        boolean avoidCache = false;
+        boolean animatedStickerPack = false;
+        int stickersStart = -1;
+        int stickersEnd = -1;
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                final String key = readString();
+                expect(':');
+                switch (key) {
+                    case "identifier":
+                        identifier = readStringValue();
+                        break;
+                    case "name":
+                        name = readStringValue();
+                        break;
+                    case "publisher":
+                        publisher = readStringValue();
+                        break;
+                    case "tray_image_file":
+                        trayImageFile = readStringValue();
+                        break;
+                    case "publisher_email":
+                        publisherEmail = readStringValue();
+                        break;
+                    case "publisher_website":
+                        publisherWebsite = readStringValue();
+                        break;
+                    case "privacy_policy_website":
+                        privacyPolicyWebsite = readStringValue();
+                        break;
+                    case "license_agreement_website":
+                        licenseAgreementWebsite = readStringValue();
+                        break;
+                    case "stickers":
+                        skipWhitespace();
+                        stickersStart = isNonEmptyArray() ? position : -1;
+                        if (position < contents.length && contents[position] == '[') {
+                            verifyStickers();
+                        } else {
+                            skipValue();
+                        }
+                        stickersEnd = position;
+                        break;
+                    case "image_data_version":
+                        imageDataVersion = readStringValue();
+                        break;
+                    case "avoid_cache":
+                        avoidCache = readBoolean();
+                        break;
+                    case "animated_sticker_pack":
+                        animatedStickerPack = readBoolean();
+                        break;
+                    default:
+                        skipValue();
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+        ContentFileParser.verifyStickerPackHeader(identifier, name, publisher, trayImageFile, imageDataVersion, stickersStart >= 0);
+        final StickerPack stickerPack = ContentFileParser.newStickerPack(identifier, name, publisher, trayImageFile, publisherEmail, publisherWebsite, privacyPolicyWebsite, licenseAgreementWebsite, imageDataVersion, avoidCache, animatedStickerPack);
+        final byte[] contents = this.contents;
+        final int start = stickersStart;
+        final int length = stickersEnd - stickersStart;
+        stickerPack.setStickerSource(() -> readStickers(contents, start, length));
+        return stickerPack;
+    }
+
+    @NonNull
+    private static List<Sticker> readStickers(@NonNull byte[] contents, int start, int length) throws IllegalStateException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(contents, start, length), UTF_8))) {
+            return ContentFileParser.readStickers(reader);
+        } catch (IOException e) {
+            throw new IllegalStateException("stickers cannot be read: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads over a stickers array with the checks of {@link ContentFileParser#readStickers}, only the
+     * image file names are kept long enough to be checked.
+     */
+    private void verifyStickers() throws IllegalStateException {
+        expect('[');
+        if (consumeIf(']')) {
+            return;
+        }
+        do {
+            String imageFile = null;
+            expect('{');
+            if (!consumeIf('}')) {
+                do {
+                    final String key = readString();
+                    expect(':');
+                    switch (key) {
+                        case "image_file":
+                            imageFile = readStringValue();
+                            break;
+                        case "emojis":
+                            expect('[');
+                            if (!consumeIf(']')) {
+                                do {
+                                    readStringValue();
+                                } while (consumeIf(','));
+                                expect(']');
+                            }
+                            break;
+                        case "accessibility_text":
+                            readStringValue();
+                            break;
+                        default:
+                            throw new IllegalStateException("unknown field in json: " + key);
+                    }
+                } while (consumeIf(','));
+                expect('}');
+            }
+            ContentFileParser.verifyStickerImageFile(imageFile);
+        } while (consumeIf(','));
+        expect(']');
+    }
+
+    private boolean isNonEmptyArray() {
+        if (position >= contents.length || contents[position] != '[') {
+            return false;
+        }
+        final int arrayStart = position;
+        position++;
+        final boolean empty = consumeIf(']');
+        position = arrayStart;
+        return !empty;
+    }
+
+    /**
+     * Skips a value of any type, containers are skipped by matching brackets without tokenizing what is in them.
+     */
+    private void skipValue() throws IllegalStateException {
+        skipWhitespace();
+        if (position >= contents.length) {
+            throw syntaxError("expected a value");
+        }
+        final byte first = contents[position];
+        if (first == '"') {
+            skipString();
+        } else if (first == '{' || first == '[') {
+            int depth = 0;
+            do {
+                final byte b = contents[position];
+                if (b == '"') {
+                    skipString();
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+                position++;
+            } while (depth > 0 && position < contents.length);
+            if (depth > 0) {
+                throw syntaxError("unterminated " + (first == '{' ? "object" : "array"));
+            }
+        } else {
+            skipLiteral();
+        }
+    }
+
+    private void skipString() throws IllegalStateException {
+        position++;
+        while (position < contents.length) {
+            final byte b = contents[position];
+            if (b == '"') {
+                position++;
+                return;
+            }
+            position += b == '\\' ? 2 : 1;
+        }
+        throw syntaxError("unterminated string");
+    }
+
+    /**
+     * Reads a number, true, false or null as its raw text.
+     */
+    @NonNull
+    private String skipLiteral() throws IllegalStateException {
+        final int start = position;
+        while (position < contents.length) {
+            final byte b = contents[position];
+            if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                break;
+            }
+            position++;
+        }
+        if (position == start) {
+            throw syntaxError("expected a value");
+        }
+        return new String(contents, start, position - start, UTF_8);
+    }
+
+    /**
+     * Reads a string the way {@link JsonReader#nextString()} does, which also accepts numbers.
+     */
+    @NonNull
+    private String readStringValue() throws IllegalStateException {
+        skipWhitespace();
+        if (position < contents.length && contents[position] == '"') {
+            return readString();
+        }
+        final String literal = skipLiteral();
+        final char first = literal.charAt(0);
+        if (first != '-' && (first < '0' || first > '9')) {
+            throw syntaxError("expected a string but was " + literal);
+        }
+        return literal;
+    }
+
+    private boolean readBoolean() throws IllegalStateException {
+        skipWhitespace();
+        final String literal = skipLiteral();
+        if ("true".equals(literal)) {
+            return true;
+        } else if ("false".equals(literal)) {
+            return false;
+        }
+        throw syntaxError("expected a boolean but was " + literal);
+    }
+
+    @NonNull
+    private String readString() throws IllegalStateException {
+        expect('"');
+        final int start = position;
+        boolean escaped = false;
+        while (position < contents.length) {
+            final byte b = contents[position];
+            if (b == '"') {
+                final String value = escaped ? unescape(start, position) : new String(contents, start, position - start, UTF_8);
+                position++;
+                return value;
+            }
+            if (b == '\\') {
+                escaped = true;
+                position += 2;
+            } else {
+                position++;
+            }
+        }
+        throw syntaxError("unterminated string");
+    }
+
+    @NonNull
+    private String unescape(int start, int end) throws IllegalStateException {
+        final StringBuilder builder = new StringBuilder(end - start);
+        int runStart = start;
+        int i = start;
+        while (i < end) {
+            if (contents[i] != '\\') {
+                i++;
+                continue;
+            }
+            builder.append(new String(contents, runStart, i - runStart, UTF_8));
+            final byte escape = contents[i + 1];
+            i += 2;
+            switch (escape) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 > end) {
+                        throw syntaxError("invalid unicode escape");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(new String(contents, i, 4, UTF_8), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("invalid unicode escape");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    builder.append((char) escape);
+            }
+            runStart = i;
+        }
+        builder.append(new String(contents, runStart, end - runStart, UTF_8));
+        return builder.toString();
+    }
+
+    private boolean consumeIf(char c) {
+        skipWhitespace();
+        if (position < contents.length && contents[position] == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) throws IllegalStateException {
+        if (!consumeIf(c)) {
+            throw syntaxError("expected '" + c + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < contents.length && isWhitespace(contents[position])) {
+            position++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    @NonNull
+    private IllegalStateException syntaxError(@NonNull String message) {
+        return new IllegalStateException("malformed json, " + message + " at byte " + position);
+    }
+}
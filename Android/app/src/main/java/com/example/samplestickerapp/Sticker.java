@@ -14,10 +14,15 @@ import android.os.Parcelable;
 import java.util.List;
 
 class Sticker implements Parcelable {
+    //the size of a file that cannot be known without reading it.
+    static final long UNKNOWN_SIZE = -1;
+
     final String imageFileName;
     final List<String> emojis;
     final String accessibilityText;
     long size;
+    // the file's blob in the sticker bundle, null if it is not in it.
+    String blobKey;
 
     Sticker(String imageFileName, List<String> emojis, String accessibilityText) {
         this.imageFileName = imageFileName;
@@ -26,10 +31,12 @@ class Sticker implements Parcelable {
     }
 
     private Sticker(Parcel in) {
-        imageFileName = in.readString();
-        emojis = in.createStringArrayList();
+        final StickerStringPool stringPool = StickerStringPool.getInstance();
+        imageFileName = stringPool.intern(in.readString());
+        emojis = stringPool.internEmojis(in.createStringArrayList());
         accessibilityText = in.readString();
         size = in.readLong();
+        blobKey = in.readString();
     }
 
     public static final Creator<Sticker> CREATOR = new Creator<Sticker>() {
@@ -48,6 +55,10 @@ class Sticker implements Parcelable {
         this.size = size;
     }
 
+    public void setBlobKey(String blobKey) {
+        this.blobKey = blobKey;
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -59,5 +70,6 @@ class Sticker implements Parcelable {
         dest.writeStringList(emojis);
         dest.writeString(accessibilityText);
         dest.writeLong(size);
+        dest.writeString(blobKey);
     }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A file the content provider is allowed to serve for a pack: its tray image or one of its stickers.
+ */
+class StickerAsset {
+    @NonNull
+    final String identifier;
+    @NonNull
+    final String fileName;
+    final boolean trayImage;
+    // where the file is in the apk, ApkAssetTable.UNKNOWN if it has to be opened through AssetManager.
+    final long startOffset;
+    final long length;
+    // key of the file's blob when it is served from the StickerBundle, null for a file of its own.
+    @Nullable
+    final String blobKey;
+
+    StickerAsset(@NonNull String identifier, @NonNull String fileName, boolean trayImage, long startOffset, long length, @Nullable String blobKey) {
+        this.identifier = identifier;
+        this.fileName = fileName;
+        this.trayImage = trayImage;
+        this.startOffset = startOffset;
+        this.length = length;
+        this.blobKey = blobKey;
+    }
+
+    /**
+     * Path of the file in the apk's assets.
+     */
+    @NonNull
+    String getAssetPath() {
+        return identifier + "/" + fileName;
+    }
+}
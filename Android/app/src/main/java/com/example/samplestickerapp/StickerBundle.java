@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The content-addressed bundle the build writes to sticker_bundles/stickers.stkb (see
+ * stickers.gradle). It holds every tray image and sticker once, stored uncompressed one after the
+ * other, behind a header that gives each of them a blob key and maps the files of every pack to them:
+ * <pre>
+ * header: magic, version, header length, blob count, file count
+ * blob:   key (first 64 bits of the sha-256 of the file), data offset, data length
+ * file:   utf-8 byte length of "identifier/file name" followed by it, blob index
+ * </pre>
+ * All values are big endian, keys are longs and everything else ints, data offsets are relative to
+ * the start of the bundle. Files are served as ranges of the bundle, so a file shared by several packs
+ * is stored and page cached once, and the app's own views can load it under one uri.
+ */
+class StickerBundle {
+    static final String ASSET_PATH = "sticker_bundles/stickers.stkb";
+    private static final int MAGIC = 0x53544b42; // "STKB"
+    private static final int VERSION = 2;
+    private static final int FIXED_HEADER_SIZE = 20;
+    private static final int BLOB_SIZE = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static class Blob {
+        // hex of the blob key, the same for every file with the same content.
+        @NonNull
+        final String key;
+        // where the blob is in the file descriptor of the bundle.
+        final long startOffset;
+        final long length;
+
+        Blob(@NonNull String key, long startOffset, long length) {
+            this.key = key;
+            this.startOffset = startOffset;
+            this.length = length;
+        }
+    }
+
+    @NonNull
+    private final ParcelFileDescriptor fileDescriptor;
+    // the file the offsets are in, null when it is not known.
+    @Nullable
+    private final File apk;
+    // "identifier/file name" -> blob
+    @NonNull
+    private final Map<String, Blob> files;
+    // blob key -> first "identifier/file name" stored in it
+    @NonNull
+    private final Map<String, String> filesByKey;
+
+    private StickerBundle(@NonNull ParcelFileDescriptor fileDescriptor, @Nullable File apk, @NonNull Map<String, Blob> files, @NonNull Map<String, String> filesByKey) {
+        this.fileDescriptor = fileDescriptor;
+        this.apk = apk;
+        this.files = files;
+        this.filesByKey = filesByKey;
+    }
+
+    /**
+     * Reads the bundle through the apk asset table, its offsets are then offsets in the apk.
+     *
+     * @return null if the apk has no uncompressed bundle.
+     */
+    @Nullable
+    static StickerBundle open(@NonNull ApkAssetTable apkAssetTable) throws IOException, IllegalStateException {
+        final long startOffset = apkAssetTable.getStartOffset(ASSET_PATH);
+        if (startOffset == ApkAssetTable.UNKNOWN) {
+            return null;
+        }
+        return open(apkAssetTable.openFd(startOffset, apkAssetTable.getLength(ASSET_PATH)), apkAssetTable.getApk());
+    }
+
+    /**
+     * Reads the bundle through AssetManager, for when the apk asset table is not available.
+     *
+     * @return null if the apk has no bundle.
+     */
+    @Nullable
+    static StickerBundle open(@NonNull AssetManager assetManager) throws IOException, IllegalStateException {
+        try {
+            return open(assetManager.openFd(ASSET_PATH), null);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The descriptor of the bundle is kept open for the lifetime of the process, like the apk's.
+     */
+    @NonNull
+    private static StickerBundle open(@NonNull AssetFileDescriptor bundleFd, @Nullable File apk) throws IOException, IllegalStateException {
+        try {
+            final Map<String, Blob> files = new HashMap<>();
+            final Map<String, String> filesByKey = new HashMap<>();
+            readHeader(bundleFd.getFileDescriptor(), bundleFd.getStartOffset(), bundleFd.getLength(), files, filesByKey);
+            return new StickerBundle(bundleFd.getParcelFileDescriptor(), apk, files, filesByKey);
+        } catch (IOException | IllegalStateException e) {
+            bundleFd.close();
+            throw e;
+        }
+    }
+
+    @Nullable
+    Blob getBlob(@NonNull String identifier, @NonNull String fileName) {
+        return files.get(identifier + "/" + fileName);
+    }
+
+    /**
+     * @return the identifier and file name of the first file stored in the blob, null if there is no
+     * such blob.
+     */
+    @Nullable
+    String[] getFile(@NonNull String key) {
+        final String file = filesByKey.get(key);
+        if (file == null) {
+            return null;
+        }
+        final int separator = file.indexOf('/');
+        return new String[]{file.substring(0, separator), file.substring(separator + 1)};
+    }
+
+    /**
+     * The apk the offsets are in when the bundle was read through the apk asset table, null when it was
+     * read through AssetManager.
+     */
+    @Nullable
+    File getApk() {
+        return apk;
+    }
+
+    /**
+     * The descriptor is duplicated, since the one handed out is closed once it is sent to the caller.
+     */
+    @NonNull
+    AssetFileDescriptor openFd(long startOffset, long length) throws IOException {
+        return new AssetFileDescriptor(fileDescriptor.dup(), startOffset, length);
+    }
+
+    private static void readHeader(@NonNull FileDescriptor fd, long bundleStart, long bundleLength,
+                                   @NonNull Map<String, Blob> files, @NonNull Map<String, String> filesByKey) throws IOException, IllegalStateException {
+        final ByteBuffer fixedHeader = read(fd, bundleStart, FIXED_HEADER_SIZE);
+        if (fixedHeader.getInt(0) != MAGIC) {
+            throw new IllegalStateException("not a sticker bundle");
+        }
+        if (fixedHeader.getInt(4) != VERSION) {
+            throw new IllegalStateException("unsupported sticker bundle version: " + fixedHeader.getInt(4));
+        }
+        final int headerLength = fixedHeader.getInt(8);
+        final int blobCount = fixedHeader.getInt(12);
+        final int fileCount = fixedHeader.getInt(16);
+        if (headerLength < FIXED_HEADER_SIZE || headerLength > bundleLength || blobCount < 0 || fileCount < 0
+                || (long) blobCount * BLOB_SIZE > headerLength - FIXED_HEADER_SIZE) {
+            throw new IllegalStateException("sticker bundle header is truncated");
+        }
+        final ByteBuffer header = read(fd, bundleStart, headerLength);
+        header.position(FIXED_HEADER_SIZE);
+        final Blob[] blobs = new Blob[blobCount];
+        for (int i = 0; i < blobCount; i++) {
+            final String key = toHex(header.getLong());
+            final long offset = header.getInt() & 0xffffffffL;
+            final long length = header.getInt() & 0xffffffffL;
+            if (offset + length > bundleLength) {
+                throw new IllegalStateException("sticker bundle blob is out of bounds: " + key);
+            }
+            blobs[i] = new Blob(key, bundleStart + offset, length);
+        }
+        for (int i = 0; i < fileCount; i++) {
+            if (header.remaining() < 4) {
+                throw new IllegalStateException("sticker bundle header is truncated");
+            }
+            final int nameLength = header.getInt();
+            if (nameLength < 0 || header.remaining() < nameLength + 4) {
+                throw new IllegalStateException("sticker bundle header is truncated");
+            }
+            final String name = new String(header.array(), header.position(), nameLength, UTF_8);
+            header.position(header.position() + nameLength);
+            final int blobIndex = header.getInt();
+            if (blobIndex < 0 || blobIndex >= blobCount || name.indexOf('/') < 0) {
+                throw new IllegalStateException("sticker bundle file is malformed: " + name);
+            }
+            files.put(name, blobs[blobIndex]);
+            if (!filesByKey.containsKey(blobs[blobIndex].key)) {
+                filesByKey.put(blobs[blobIndex].key, name);
+            }
+        }
+    }
+
+    @NonNull
+    private static String toHex(long key) {
+        final String hex = Long.toHexString(key);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    @NonNull
+    private static ByteBuffer read(@NonNull FileDescriptor fd, long position, int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        int read = 0;
+        try {
+            while (read < length) {
+                final int count = Os.pread(fd, bytes, read, length - read, position + read);
+                if (count <= 0) {
+                    throw new IOException("unexpected end of sticker bundle");
+                }
+                read += count;
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("cannot read sticker bundle", e);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable lookup index over the sticker packs read from the catalog, built once per load, so that
+ * every provider entry point finds a pack by identifier and a file by (identifier, file name) with a
+ * hash lookup instead of scanning every pack and sticker.
+ * <p>
+ * The files of a pack are indexed the first time one of them is asked for, which keeps packs whose
+ * stickers are read lazily from being read when the catalog is built. Packs are also indexed by
+ * publisher and by whether they are animated, so {@link #query} only looks at the packs that can
+ * match. The files' position in the {@link StickerBundle}, or else in the {@link ApkAssetTable}, is
+ * looked up once, when they are indexed.
+ */
+class StickerCatalog {
+    @NonNull
+    private final List<StickerPack> stickerPacks;
+    @NonNull
+    private final Map<String, PackEntry> packsByIdentifier;
+    // positions in the catalog, in catalog order.
+    @NonNull
+    private final Map<String, List<Integer>> packsByPublisher;
+    @NonNull
+    private final List<StickerPack> animatedStickerPacks;
+    @NonNull
+    private final List<StickerPack> staticStickerPacks;
+    @Nullable
+    private final ApkAssetTable apkAssetTable;
+    @Nullable
+    private final StickerBundle stickerBundle;
+    private final long version;
+
+    StickerCatalog(@NonNull List<StickerPack> stickerPacks, @Nullable ApkAssetTable apkAssetTable, @Nullable StickerBundle stickerBundle, long version) {
+        this.stickerPacks = Collections.unmodifiableList(stickerPacks);
+        final Map<String, PackEntry> packsByIdentifier = new HashMap<>(stickerPacks.size() * 2);
+        final Map<String, List<Integer>> packsByPublisher = new HashMap<>();
+        final List<StickerPack> animatedStickerPacks = new ArrayList<>();
+        final List<StickerPack> staticStickerPacks = new ArrayList<>();
+        for (int i = 0; i < stickerPacks.size(); i++) {
+            final StickerPack stickerPack = stickerPacks.get(i);
+            //same as the linear scans this replaces, the first pack with an identifier wins.
+            if (!packsByIdentifier.containsKey(stickerPack.identifier)) {
+                packsByIdentifier.put(stickerPack.identifier, new PackEntry(stickerPack, i));
+            }
+            List<Integer> publisherPacks = packsByPublisher.get(stickerPack.publisher);
+            if (publisherPacks == null) {
+                publisherPacks = new ArrayList<>();
+                packsByPublisher.put(stickerPack.publisher, publisherPacks);
+            }
+            publisherPacks.add(i);
+            (stickerPack.animatedStickerPack ? animatedStickerPacks : staticStickerPacks).add(stickerPack);
+        }
+        this.packsByIdentifier = packsByIdentifier;
+        this.packsByPublisher = packsByPublisher;
+        this.animatedStickerPacks = animatedStickerPacks;
+        this.staticStickerPacks = staticStickerPacks;
+        this.apkAssetTable = apkAssetTable;
+        this.stickerBundle = stickerBundle;
+        this.version = version;
+    }
+
+    /**
+     * Increases with every catalog the process reads, so two catalogs never have the same version.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    @NonNull
+    List<StickerPack> getStickerPacks() {
+        return stickerPacks;
+    }
+
+    @Nullable
+    StickerPack getStickerPack(@NonNull String identifier) {
+        final PackEntry packEntry = packsByIdentifier.get(identifier);
+        return packEntry != null ? packEntry.stickerPack : null;
+    }
+
+    /**
+     * Returns the packs matching the query's selection, in its sort order or in catalog order if it
+     * has none.
+     */
+    @NonNull
+    List<StickerPack> query(@NonNull StickerPackQuery query) {
+        if (!query.hasSelection()) {
+            return query.sort(stickerPacks);
+        }
+        final List<StickerPack> candidates;
+        if (query.identifiers != null) {
+            final List<Integer> positions = new ArrayList<>(query.identifiers.size());
+            for (String identifier : query.identifiers) {
+                final PackEntry packEntry = packsByIdentifier.get(identifier);
+                if (packEntry != null) {
+                    positions.add(packEntry.position);
+                }
+            }
+            candidates = getStickerPacks(positions);
+        } else if (query.publishers != null) {
+            final List<Integer> positions = new ArrayList<>();
+            for (String publisher : query.publishers) {
+                final List<Integer> publisherPacks = packsByPublisher.get(publisher);
+                if (publisherPacks != null) {
+                    positions.addAll(publisherPacks);
+                }
+            }
+            candidates = getStickerPacks(positions);
+        } else if (query.animatedStickerPack.size() == 1) {
+            candidates = query.animatedStickerPack.contains(true) ? animatedStickerPacks : staticStickerPacks;
+        } else {
+            candidates = stickerPacks;
+        }
+        final List<StickerPack> matches = new ArrayList<>(candidates.size());
+        for (StickerPack stickerPack : candidates) {
+            if (query.matches(stickerPack)) {
+                matches.add(stickerPack);
+            }
+        }
+        return query.sort(matches);
+    }
+
+    @NonNull
+    private List<StickerPack> getStickerPacks(@NonNull List<Integer> positions) {
+        Collections.sort(positions);
+        final List<StickerPack> packs = new ArrayList<>(positions.size());
+        for (Integer position : positions) {
+            packs.add(stickerPacks.get(position));
+        }
+        return packs;
+    }
+
+    /**
+     * Returns the tray image or sticker with that file name in the pack, or null if the pack does
+     * not contain it.
+     */
+    @Nullable
+    StickerAsset getAsset(@NonNull String identifier, @NonNull String fileName) {
+        final PackEntry packEntry = packsByIdentifier.get(identifier);
+        return packEntry != null ? packEntry.getAssets(apkAssetTable, stickerBundle).get(fileName) : null;
+    }
+
+    /**
+     * The tray image and stickers of the pack, in that order, empty if there is no such pack.
+     */
+    @NonNull
+    List<StickerAsset> getAssets(@NonNull String identifier) {
+        final PackEntry packEntry = packsByIdentifier.get(identifier);
+        return packEntry != null ? new ArrayList<>(packEntry.getAssets(apkAssetTable, stickerBundle).values()) : Collections.<StickerAsset>emptyList();
+    }
+
+    private static class PackEntry {
+        @NonNull
+        final StickerPack stickerPack;
+        final int position;
+        private volatile Map<String, StickerAsset> assets;
+
+        PackEntry(@NonNull StickerPack stickerPack, int position) {
+            this.stickerPack = stickerPack;
+            this.position = position;
+        }
+
+        @NonNull
+        Map<String, StickerAsset> getAssets(@Nullable ApkAssetTable apkAssetTable, @Nullable StickerBundle stickerBundle) {
+            Map<String, StickerAsset> assets = this.assets;
+            if (assets == null) {
+                synchronized (this) {
+                    assets = this.assets;
+                    if (assets == null) {
+                        assets = indexAssets(stickerPack, apkAssetTable, stickerBundle);
+                        this.assets = assets;
+                    }
+                }
+            }
+            return assets;
+        }
+
+        @NonNull
+        private static Map<String, StickerAsset> indexAssets(@NonNull StickerPack stickerPack, @Nullable ApkAssetTable apkAssetTable, @Nullable StickerBundle stickerBundle) {
+            final List<Sticker> stickers = stickerPack.getStickers();
+            final Map<String, StickerAsset> assets = new LinkedHashMap<>(stickers.size() * 2 + 2);
+            assets.put(stickerPack.trayImageFile, newAsset(stickerPack.identifier, stickerPack.trayImageFile, true, apkAssetTable, stickerBundle));
+            for (Sticker sticker : stickers) {
+                if (!assets.containsKey(sticker.imageFileName)) {
+                    assets.put(sticker.imageFileName, newAsset(stickerPack.identifier, sticker.imageFileName, false, apkAssetTable, stickerBundle));
+                }
+            }
+            return Collections.unmodifiableMap(assets);
+        }
+
+        @NonNull
+        private static StickerAsset newAsset(@NonNull String identifier, @NonNull String fileName, boolean trayImage, @Nullable ApkAssetTable apkAssetTable,
+                                             @Nullable StickerBundle stickerBundle) {
+            final StickerBundle.Blob blob = stickerBundle != null ? stickerBundle.getBlob(identifier, fileName) : null;
+            if (blob != null) {
+                return new StickerAsset(identifier, fileName, trayImage, blob.startOffset, blob.length, blob.key);
+            }
+            if (apkAssetTable == null) {
+                return new StickerAsset(identifier, fileName, trayImage, ApkAssetTable.UNKNOWN, ApkAssetTable.UNKNOWN, null);
+            }
+            final String assetPath = identifier + "/" + fileName;
+            return new StickerAsset(identifier, fileName, trayImage, apkAssetTable.getStartOffset(assetPath), apkAssetTable.getLength(assetPath), null);
+        }
+    }
+}
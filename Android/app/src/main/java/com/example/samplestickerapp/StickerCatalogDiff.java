@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The packs that differ between two catalogs, so a reload only notifies the observers of what
+ * changed. A pack that was added or removed differs in both its metadata and its stickers, a pack
+ * that moved in the catalog only in its metadata, and a new image data version in both, since
+ * WhatsApp reads the stickers again when it sees one.
+ */
+class StickerCatalogDiff {
+    @NonNull
+    final Set<String> changedMetadata = new LinkedHashSet<>();
+    @NonNull
+    final Set<String> changedStickers = new LinkedHashSet<>();
+
+    @NonNull
+    static StickerCatalogDiff compute(@NonNull List<StickerPack> oldStickerPacks, @NonNull List<StickerPack> newStickerPacks) {
+        final StickerCatalogDiff diff = new StickerCatalogDiff();
+        final Map<String, Integer> oldPositions = new HashMap<>(oldStickerPacks.size() * 2);
+        for (int i = 0; i < oldStickerPacks.size(); i++) {
+            //the first pack with an identifier wins, like in StickerCatalog.
+            if (!oldPositions.containsKey(oldStickerPacks.get(i).identifier)) {
+                oldPositions.put(oldStickerPacks.get(i).identifier, i);
+            }
+        }
+        for (int i = 0; i < newStickerPacks.size(); i++) {
+            final StickerPack newStickerPack = newStickerPacks.get(i);
+            final Integer oldPosition = oldPositions.remove(newStickerPack.identifier);
+            if (oldPosition == null) {
+                diff.changedMetadata.add(newStickerPack.identifier);
+                diff.changedStickers.add(newStickerPack.identifier);
+                continue;
+            }
+            final StickerPack oldStickerPack = oldStickerPacks.get(oldPosition);
+            final boolean sameImages = TextUtils.equals(oldStickerPack.imageDataVersion, newStickerPack.imageDataVersion);
+            if (oldPosition != i || !sameImages || !sameMetadata(oldStickerPack, newStickerPack)) {
+                diff.changedMetadata.add(newStickerPack.identifier);
+            }
+            if (!sameImages || !sameStickers(oldStickerPack.getStickers(), newStickerPack.getStickers())) {
+                diff.changedStickers.add(newStickerPack.identifier);
+            }
+        }
+        //what is left was removed.
+        diff.changedMetadata.addAll(oldPositions.keySet());
+        diff.changedStickers.addAll(oldPositions.keySet());
+        return diff;
+    }
+
+    /**
+     * A pack that changed in every way, for when the previous version of it is not known.
+     */
+    @NonNull
+    static StickerCatalogDiff forStickerPack(@NonNull String identifier) {
+        final StickerCatalogDiff diff = new StickerCatalogDiff();
+        diff.changedMetadata.add(identifier);
+        diff.changedStickers.add(identifier);
+        return diff;
+    }
+
+    private static boolean sameMetadata(@NonNull StickerPack first, @NonNull StickerPack second) {
+        return TextUtils.equals(first.name, second.name)
+                && TextUtils.equals(first.publisher, second.publisher)
+                && TextUtils.equals(first.trayImageFile, second.trayImageFile)
+                && TextUtils.equals(first.androidPlayStoreLink, second.androidPlayStoreLink)
+                && TextUtils.equals(first.iosAppStoreLink, second.iosAppStoreLink)
+                && TextUtils.equals(first.publisherEmail, second.publisherEmail)
+                && TextUtils.equals(first.publisherWebsite, second.publisherWebsite)
+                && TextUtils.equals(first.privacyPolicyWebsite, second.privacyPolicyWebsite)
+                && TextUtils.equals(first.licenseAgreementWebsite, second.licenseAgreementWebsite)
+                && first.avoidCache == second.avoidCache
+                && first.animatedStickerPack == second.animatedStickerPack;
+    }
+
+    private static boolean sameStickers(@NonNull List<Sticker> first, @NonNull List<Sticker> second) {
+        if (first.size() != second.size()) {
+            return false;
+        }
+        for (int i = 0; i < first.size(); i++) {
+            final Sticker firstSticker = first.get(i);
+            final Sticker secondSticker = second.get(i);
+            if (!TextUtils.equals(firstSticker.imageFileName, secondSticker.imageFileName)
+                    || !TextUtils.equals(firstSticker.accessibilityText, secondSticker.accessibilityText)
+                    || !firstSticker.emojis.equals(secondSticker.emojis)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
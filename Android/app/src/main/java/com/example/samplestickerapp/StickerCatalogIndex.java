@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the binary catalog index that the build compiles from contents.json (see stickers.gradle).
+ * The index is stored uncompressed in the apk so it can be memory mapped, and holds fixed width
+ * pack and sticker tables that point into a string pool:
+ * <pre>
+ * header:  magic, version, pack count, sticker count, pack table offset, sticker table offset,
+ *          string pool offset, string pool length, android play store link, ios app store link
+ * pack:    identifier, name, publisher, tray image file, publisher email, publisher website,
+ *          privacy policy website, license agreement website, image data version, flags,
+ *          first sticker, sticker count
+ * sticker: image file, emojis joined by ",", accessibility text
+ * string:  utf-8 byte length followed by the bytes
+ * </pre>
+ * All values are big endian ints, strings are referenced by their offset in the pool, -1 means null.
+ * The json is validated when the index is compiled, so nothing is re-validated here.
+ * <p>
+ * The header fields of the packs are decoded when the catalog is built, the stickers only when a
+ * pack's stickers are first asked for. {@link StickerPack} holds its header in final fields read all
+ * over the app, the catalog indexes every pack by identifier, publisher and animated flag as it is
+ * built, and the first metadata query reads every other field of every pack, so a header left in the
+ * buffer would be decoded right after anyway. The stickers are what grows with the catalog, thirty
+ * records per pack against one, and they stay in the buffer until they are needed.
+ */
+class StickerCatalogIndex {
+    static final String INDEX_FILE_NAME = "contents.idx";
+
+    private static final int MAGIC = 0x53544b49; // "STKI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int PACK_RECORD_SIZE = 48;
+    private static final int STICKER_RECORD_SIZE = 12;
+    private static final int NO_STRING = -1;
+    private static final int FLAG_AVOID_CACHE = 1;
+    private static final int FLAG_ANIMATED_STICKER_PACK = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @NonNull
+    private final ByteBuffer buffer;
+    private final int packCount;
+    private final int stickerCount;
+    private final int packTableOffset;
+    private final int stickerTableOffset;
+    private final int stringPoolOffset;
+    private final int stringPoolLength;
+    // strings are de-duplicated in the pool, so decoding each offset once also shares the instances.
+    private final SparseArray<String> decodedStrings = new SparseArray<>();
+
+    private StickerCatalogIndex(@NonNull ByteBuffer buffer) throws IllegalStateException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException(INDEX_FILE_NAME + " is not a sticker catalog index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException(INDEX_FILE_NAME + " has unsupported version: " + buffer.getInt(4));
+        }
+        packCount = buffer.getInt(8);
+        stickerCount = buffer.getInt(12);
+        packTableOffset = buffer.getInt(16);
+        stickerTableOffset = buffer.getInt(20);
+        stringPoolOffset = buffer.getInt(24);
+        stringPoolLength = buffer.getInt(28);
+        if (packTableOffset + (long) packCount * PACK_RECORD_SIZE > stickerTableOffset
+                || stickerTableOffset + (long) stickerCount * STICKER_RECORD_SIZE > stringPoolOffset
+                || stringPoolOffset + (long) stringPoolLength > buffer.capacity()) {
+            throw new IllegalStateException(INDEX_FILE_NAME + " is truncated");
+        }
+    }
+
+    /**
+     * Maps the index from the apk, returns null if the build did not package one.
+     */
+    @Nullable
+    static StickerCatalogIndex open(@NonNull AssetManager assetManager) throws IOException, IllegalStateException {
+        final AssetFileDescriptor fd;
+        try {
+            fd = assetManager.openFd(INDEX_FILE_NAME);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try (AssetFileDescriptor indexFd = fd;
+             FileInputStream inputStream = new FileInputStream(indexFd.getFileDescriptor());
+             FileChannel channel = inputStream.getChannel()) {
+            // the mapping stays valid after the descriptor is closed.
+            return new StickerCatalogIndex(channel.map(FileChannel.MapMode.READ_ONLY, indexFd.getStartOffset(), indexFd.getLength()));
+        }
+    }
+
+    @NonNull
+    List<StickerPack> readStickerPacks() {
+        final String androidPlayStoreLink = readString(buffer.getInt(32));
+        final String iosAppStoreLink = readString(buffer.getInt(36));
+        final List<StickerPack> stickerPackList = new ArrayList<>(packCount);
+        for (int i = 0; i < packCount; i++) {
+            final StickerPack stickerPack = readStickerPack(packTableOffset + i * PACK_RECORD_SIZE);
+            stickerPack.setAndroidPlayStoreLink(androidPlayStoreLink);
+            stickerPack.setIosAppStoreLink(iosAppStoreLink);
+            stickerPackList.add(stickerPack);
+        }
+        return stickerPackList;
+    }
+
+    @NonNull
+    private StickerPack readStickerPack(int offset) {
+        final int flags = buffer.getInt(offset + 36);
+        final StickerPack stickerPack = ContentFileParser.newStickerPack(
+                readString(buffer.getInt(offset)),
+                readString(buffer.getInt(offset + 4)),
+                readString(buffer.getInt(offset + 8)),
+                readString(buffer.getInt(offset + 12)),
+                readString(buffer.getInt(offset + 16)),
+                readString(buffer.getInt(offset + 20)),
+                readString(buffer.getInt(offset + 24)),
+                readString(buffer.getInt(offset + 28)),
+                readString(buffer.getInt(offset + 32)),
+                (flags & FLAG_AVOID_CACHE) != 0,
+                (flags & FLAG_ANIMATED_STICKER_PACK) != 0);
+        final int firstSticker = buffer.getInt(offset + 40);
+        final int stickerCount = buffer.getInt(offset + 44);
+        stickerPack.setStickerSource(() -> readStickers(firstSticker, stickerCount));
+        return stickerPack;
+    }
+
+    @NonNull
+    private List<Sticker> readStickers(int firstSticker, int count) {
+        if (firstSticker < 0 || count < 0 || firstSticker + count > stickerCount) {
+            throw new IllegalStateException(INDEX_FILE_NAME + " has an invalid sticker range: " + firstSticker + ", " + count);
+        }
+        final List<Sticker> stickerList = new ArrayList<>(count);
+        final StickerStringPool stringPool = StickerStringPool.getInstance();
+        for (int i = 0; i < count; i++) {
+            final int offset = stickerTableOffset + (firstSticker + i) * STICKER_RECORD_SIZE;
+            final List<String> emojis = stringPool.internEmojis(readString(buffer.getInt(offset + 4)));
+            stickerList.add(new Sticker(stringPool.intern(readString(buffer.getInt(offset))), emojis, readString(buffer.getInt(offset + 8))));
+        }
+        return stickerList;
+    }
+
+    @Nullable
+    private synchronized String readString(int poolOffset) {
+        if (poolOffset == NO_STRING) {
+            return null;
+        }
+        if (poolOffset < 0 || poolOffset + 4 > stringPoolLength) {
+            throw new IllegalStateException(INDEX_FILE_NAME + " has an invalid string offset: " + poolOffset);
+        }
+        String value = decodedStrings.get(poolOffset);
+        if (value == null) {
+            final int position = stringPoolOffset + poolOffset;
+            final int length = buffer.getInt(position);
+            if (length < 0 || poolOffset + 4 + length > stringPoolLength) {
+                throw new IllegalStateException(INDEX_FILE_NAME + " has an invalid string length at: " + poolOffset);
+            }
+            final byte[] bytes = new byte[length];
+            final ByteBuffer source = buffer.duplicate();
+            source.position(position + 4);
+            source.get(bytes);
+            value = new String(bytes, UTF_8);
+            decodedStrings.put(poolOffset, value);
+        }
+        return value;
+    }
+}
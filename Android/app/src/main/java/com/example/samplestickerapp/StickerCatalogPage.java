@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.samplestickerapp.StickerContentProvider.ANDROID_APP_DOWNLOAD_LINK_IN_QUERY;
+import static com.example.samplestickerapp.StickerContentProvider.ANIMATED_STICKER_PACK;
+import static com.example.samplestickerapp.StickerContentProvider.AVOID_CACHE;
+import static com.example.samplestickerapp.StickerContentProvider.IMAGE_DATA_VERSION;
+import static com.example.samplestickerapp.StickerContentProvider.IOS_APP_DOWNLOAD_LINK_IN_QUERY;
+import static com.example.samplestickerapp.StickerContentProvider.LICENSE_AGREENMENT_WEBSITE;
+import static com.example.samplestickerapp.StickerContentProvider.PRIVACY_POLICY_WEBSITE;
+import static com.example.samplestickerapp.StickerContentProvider.PUBLISHER_EMAIL;
+import static com.example.samplestickerapp.StickerContentProvider.PUBLISHER_WEBSITE;
+import static com.example.samplestickerapp.StickerContentProvider.STICKER_FILE_ACCESSIBILITY_TEXT_IN_QUERY;
+import static com.example.samplestickerapp.StickerContentProvider.STICKER_FILE_EMOJI_IN_QUERY;
+import static com.example.samplestickerapp.StickerContentProvider.STICKER_FILE_NAME_IN_QUERY;
+import static com.example.samplestickerapp.StickerContentProvider.STICKER_PACK_ICON_IN_QUERY;
+import static com.example.samplestickerapp.StickerContentProvider.STICKER_PACK_IDENTIFIER_IN_QUERY;
+import static com.example.samplestickerapp.StickerContentProvider.STICKER_PACK_NAME_IN_QUERY;
+import static com.example.samplestickerapp.StickerContentProvider.STICKER_PACK_PUBLISHER_IN_QUERY;
+
+/**
+ * A page of the catalog as returned by {@link StickerContentProvider#METHOD_GET_CATALOG}, so a caller
+ * gets packs, stickers and file sizes in one call instead of a query per pack and a read per file.
+ * Callers follow {@link #NEXT_PAGE} until a page has none, and start over if {@link #CATALOG_VERSION}
+ * changed in between.
+ * <p>
+ * Each pack is a Bundle holding its metadata under the same names as the metadata columns, and its
+ * stickers as arrays under the sticker column names, emojis joined by "," like in the cursor. Only
+ * platform types are used, so apps that do not have these classes can read it too. A page stops
+ * before it gets past {@link #MAX_PAGE_BYTES}, {@link #NEXT_PAGE} then holds where the next one starts.
+ */
+class StickerCatalogPage {
+    static final String STICKER_PACKS = "sticker_packs";
+    static final String NEXT_PAGE = "next_page";
+    // the catalog the page was read from, pages from different catalogs do not add up.
+    static final String CATALOG_VERSION = "catalog_version";
+    // {@link Sticker#UNKNOWN_SIZE} for files whose size cannot be known without reading them.
+    static final String STICKER_FILE_SIZE = "sticker_file_size";
+    // null for files that are not in the sticker bundle, see StickerBundle.
+    static final String STICKER_BLOB_KEY = "sticker_blob_key";
+
+    // the binder transaction buffer is 1MB, shared by every transaction the process has in flight.
+    private static final int MAX_PAGE_BYTES = 256 * 1024;
+    // rough cost of a Bundle entry besides its value: key, type and length.
+    private static final int ENTRY_OVERHEAD = 48;
+    // a blob key is 16 hex digits, parcelled as utf-16 with its length.
+    private static final int BLOB_KEY_BYTES = 36;
+
+    interface AssetSizes {
+        /**
+         * @return {@link Sticker#UNKNOWN_SIZE} if the size cannot be known without reading the file.
+         */
+        long getSize(@NonNull StickerPack stickerPack, @NonNull String fileName);
+    }
+
+    interface BlobKeys {
+        @Nullable
+        String getBlobKey(@NonNull StickerPack stickerPack, @NonNull String fileName);
+    }
+
+    /**
+     * Writes the packs from start on, at least one of them if there is any.
+     */
+    @NonNull
+    static Bundle write(@NonNull List<StickerPack> stickerPacks, int start, long catalogVersion, @NonNull AssetSizes assetSizes, @NonNull BlobKeys blobKeys) {
+        final ArrayList<Bundle> packBundles = new ArrayList<>();
+        int pageBytes = 0;
+        int next = Math.max(start, 0);
+        while (next < stickerPacks.size()) {
+            final StickerPack stickerPack = stickerPacks.get(next);
+            final int packBytes = estimateSize(stickerPack);
+            if (!packBundles.isEmpty() && pageBytes + packBytes > MAX_PAGE_BYTES) {
+                break;
+            }
+            packBundles.add(writeStickerPack(stickerPack, assetSizes, blobKeys));
+            pageBytes += packBytes;
+            next++;
+        }
+        final Bundle page = new Bundle();
+        page.putParcelableArrayList(STICKER_PACKS, packBundles);
+        page.putLong(CATALOG_VERSION, catalogVersion);
+        if (next < stickerPacks.size()) {
+            page.putInt(NEXT_PAGE, next);
+        }
+        return page;
+    }
+
+    @NonNull
+    private static Bundle writeStickerPack(@NonNull StickerPack stickerPack, @NonNull AssetSizes assetSizes, @NonNull BlobKeys blobKeys) {
+        final Bundle bundle = new Bundle();
+        bundle.putString(STICKER_PACK_IDENTIFIER_IN_QUERY, stickerPack.identifier);
+        bundle.putString(STICKER_PACK_NAME_IN_QUERY, stickerPack.name);
+        bundle.putString(STICKER_PACK_PUBLISHER_IN_QUERY, stickerPack.publisher);
+        bundle.putString(STICKER_PACK_ICON_IN_QUERY, stickerPack.trayImageFile);
+        bundle.putString(ANDROID_APP_DOWNLOAD_LINK_IN_QUERY, stickerPack.androidPlayStoreLink);
+        bundle.putString(IOS_APP_DOWNLOAD_LINK_IN_QUERY, stickerPack.iosAppStoreLink);
+        bundle.putString(PUBLISHER_EMAIL, stickerPack.publisherEmail);
+        bundle.putString(PUBLISHER_WEBSITE, stickerPack.publisherWebsite);
+        bundle.putString(PRIVACY_POLICY_WEBSITE, stickerPack.privacyPolicyWebsite);
+        bundle.putString(LICENSE_AGREENMENT_WEBSITE, stickerPack.licenseAgreementWebsite);
+        bundle.putString(IMAGE_DATA_VERSION, stickerPack.imageDataVersion);
+        bundle.putBoolean(AVOID_CACHE, stickerPack.avoidCache);
+        bundle.putBoolean(ANIMATED_STICKER_PACK, stickerPack.animatedStickerPack);
+        final List<Sticker> stickers = stickerPack.getStickers();
+        final String[] fileNames = new String[stickers.size()];
+        final String[] emojis = new String[stickers.size()];
+        final String[] accessibilityTexts = new String[stickers.size()];
+        final long[] sizes = new long[stickers.size()];
+        final String[] blobKeyValues = new String[stickers.size()];
+        for (int i = 0; i < fileNames.length; i++) {
+            final Sticker sticker = stickers.get(i);
+            fileNames[i] = sticker.imageFileName;
+            emojis[i] = TextUtils.join(",", sticker.emojis);
+            accessibilityTexts[i] = sticker.accessibilityText;
+            sizes[i] = assetSizes.getSize(stickerPack, sticker.imageFileName);
+            blobKeyValues[i] = blobKeys.getBlobKey(stickerPack, sticker.imageFileName);
+        }
+        bundle.putStringArray(STICKER_FILE_NAME_IN_QUERY, fileNames);
+        bundle.putStringArray(STICKER_FILE_EMOJI_IN_QUERY, emojis);
+        bundle.putStringArray(STICKER_FILE_ACCESSIBILITY_TEXT_IN_QUERY, accessibilityTexts);
+        bundle.putLongArray(STICKER_FILE_SIZE, sizes);
+        bundle.putStringArray(STICKER_BLOB_KEY, blobKeyValues);
+        return bundle;
+    }
+
+    private static int estimateSize(@NonNull StickerPack stickerPack) {
+        int size = estimateSize(stickerPack.identifier) + estimateSize(stickerPack.name) + estimateSize(stickerPack.publisher)
+                + estimateSize(stickerPack.trayImageFile) + estimateSize(stickerPack.androidPlayStoreLink) + estimateSize(stickerPack.iosAppStoreLink)
+                + estimateSize(stickerPack.publisherEmail) + estimateSize(stickerPack.publisherWebsite) + estimateSize(stickerPack.privacyPolicyWebsite)
+                + estimateSize(stickerPack.licenseAgreementWebsite) + estimateSize(stickerPack.imageDataVersion) + 6 * ENTRY_OVERHEAD;
+        for (Sticker sticker : stickerPack.getStickers()) {
+            //parcelled strings are utf-16, emojis are counted joined with their separators.
+            size += estimateSize(sticker.imageFileName) + estimateSize(sticker.accessibilityText) + 8 + BLOB_KEY_BYTES;
+            for (String emoji : sticker.emojis) {
+                size += emoji.length() * 2 + 2;
+            }
+        }
+        return size;
+    }
+
+    private static int estimateSize(@Nullable String value) {
+        return value == null ? ENTRY_OVERHEAD : ENTRY_OVERHEAD + value.length() * 2;
+    }
+}
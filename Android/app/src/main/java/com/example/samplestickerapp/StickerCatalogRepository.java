@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The bundled catalog and the apk files it is served from, read once per process and shared by
+ * {@link StickerContentProvider}, which serves it to WhatsApp, and {@link StickerPackLoader}, which
+ * hands it to the app's own screens without going through the provider's cursors.
+ */
+class StickerCatalogRepository {
+    private static final String CONTENT_FILE_NAME = "contents.json";
+    private static final String VALIDATION_PREFERENCES = "sticker_catalog_validation";
+    private static final String VALIDATED_APK = "validated_apk";
+
+    private static StickerCatalogRepository instance;
+
+    @NonNull
+    private final Context context;
+    //published immutable snapshot, readers never lock, a reload builds a new one and swaps it in.
+    private final AtomicReference<StickerCatalog> stickerCatalog = new AtomicReference<>();
+    //only written with the lock held by the catalog loads.
+    private long lastCatalogVersion;
+    //read with the first catalog and kept for the lifetime of the process, null if the apk could not be read.
+    private volatile ApkAssetTable apkAssetTable;
+    //read along with the apk asset table, null if the apk has no sticker bundle.
+    private volatile StickerBundle stickerBundle;
+    private boolean apkAssetsRead;
+    //created along with the apk asset table, only files whose position in the apk is known are warmed.
+    private volatile StickerReadAhead readAhead;
+    //the catalog whose bundled packs were validated, only written with the validation lock held.
+    private volatile StickerCatalog validatedCatalog;
+    private final Object validationLock = new Object();
+
+    private StickerCatalogRepository(@NonNull Context context) {
+        this.context = context;
+    }
+
+    @NonNull
+    static synchronized StickerCatalogRepository getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new StickerCatalogRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @NonNull
+    StickerCatalog getStickerCatalog() {
+        final StickerCatalog catalog = stickerCatalog.get();
+        return catalog != null ? catalog : loadStickerCatalog();
+    }
+
+    //only the first load and reloads take the lock, so the catalog is never read twice at once.
+    @NonNull
+    private synchronized StickerCatalog loadStickerCatalog() {
+        StickerCatalog catalog = stickerCatalog.get();
+        if (catalog == null) {
+            readApkAssets();
+            catalog = readContentFile(context, apkAssetTable, stickerBundle, ++lastCatalogVersion);
+            stickerCatalog.set(catalog);
+        }
+        return catalog;
+    }
+
+    /**
+     * Builds a new catalog while the current one keeps being served, then swaps it in.
+     *
+     * @return the packs that differ from the previous catalog, null if there was none yet.
+     */
+    @Nullable
+    synchronized StickerCatalogDiff reloadStickerCatalog() {
+        readApkAssets();
+        //the previous catalog's values are not kept alive by the pool once it is replaced.
+        StickerStringPool.getInstance().clear();
+        final StickerCatalog newCatalog = readContentFile(context, apkAssetTable, stickerBundle, ++lastCatalogVersion);
+        final StickerCatalog oldCatalog = stickerCatalog.getAndSet(newCatalog);
+        if (readAhead != null) {
+            readAhead.cancelAll();
+        }
+        return oldCatalog != null ? StickerCatalogDiff.compute(oldCatalog.getStickerPacks(), newCatalog.getStickerPacks()) : null;
+    }
+
+    /**
+     * Validates the files of the bundled packs once per catalog. The result is also kept in the app's
+     * preferences for the apk they were read from, so only the first start after an install or update
+     * reads them, later starts and catalog reloads of the same apk do no asset I/O.
+     */
+    void verifyBundledStickerPacks() throws IllegalStateException {
+        final StickerCatalog catalog = getStickerCatalog();
+        if (validatedCatalog == catalog) {
+            return;
+        }
+        synchronized (validationLock) {
+            if (validatedCatalog == catalog) {
+                return;
+            }
+            final SharedPreferences preferences = context.getSharedPreferences(VALIDATION_PREFERENCES, Context.MODE_PRIVATE);
+            final String apkKey = getApkKey(context);
+            if (!apkKey.equals(preferences.getString(VALIDATED_APK, null))) {
+                for (StickerPack stickerPack : catalog.getStickerPacks()) {
+                    StickerPackValidator.verifyStickerPackValidity(context, stickerPack);
+                }
+                preferences.edit().putString(VALIDATED_APK, apkKey).apply();
+            }
+            validatedCatalog = catalog;
+        }
+    }
+
+    //changes whenever the apk is installed again, the bundled files cannot change otherwise.
+    @NonNull
+    private static String getApkKey(@NonNull Context context) {
+        final File apk = new File(context.getApplicationInfo().sourceDir);
+        return apk.getPath() + ":" + apk.lastModified() + ":" + apk.length();
+    }
+
+    /**
+     * Read with the first catalog, null before it or if the apk could not be read.
+     */
+    @Nullable
+    ApkAssetTable getApkAssetTable() {
+        return apkAssetTable;
+    }
+
+    /**
+     * Read with the first catalog, null before it or if the apk has no sticker bundle.
+     */
+    @Nullable
+    StickerBundle getStickerBundle() {
+        return stickerBundle;
+    }
+
+    @Nullable
+    StickerReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    @NonNull
+    StickerPackDatabase getStickerPackDatabase() {
+        return StickerPackDatabase.getInstance(context);
+    }
+
+    /**
+     * The bundled packs followed by the stored ones, with their stickers, the stickers' file sizes and
+     * blob keys. The packs are copies, the app's screens set their sizes and whitelist status while the
+     * provider keeps serving the catalog's own.
+     */
+    @NonNull
+    ArrayList<StickerPack> copyStickerPacks() {
+        final StickerCatalog catalog = getStickerCatalog();
+        final StickerPackDatabase stickerPackDatabase = getStickerPackDatabase();
+        final List<StickerPack> catalogStickerPacks = catalog.getStickerPacks();
+        final List<StickerPack> storedStickerPacks = stickerPackDatabase.getStickerPacks();
+        final ArrayList<StickerPack> stickerPacks = new ArrayList<>(catalogStickerPacks.size() + storedStickerPacks.size());
+        for (StickerPack stickerPack : catalogStickerPacks) {
+            stickerPacks.add(copyStickerPack(catalog, stickerPackDatabase, stickerPack));
+        }
+        for (StickerPack stickerPack : storedStickerPacks) {
+            stickerPacks.add(copyStickerPack(catalog, stickerPackDatabase, stickerPack));
+        }
+        return stickerPacks;
+    }
+
+    @NonNull
+    private static StickerPack copyStickerPack(@NonNull StickerCatalog catalog, @NonNull StickerPackDatabase stickerPackDatabase, @NonNull StickerPack stickerPack) {
+        final StickerPack copy = ContentFileParser.newStickerPack(stickerPack.identifier, stickerPack.name, stickerPack.publisher, stickerPack.trayImageFile,
+                stickerPack.publisherEmail, stickerPack.publisherWebsite, stickerPack.privacyPolicyWebsite, stickerPack.licenseAgreementWebsite,
+                stickerPack.imageDataVersion, stickerPack.avoidCache, stickerPack.animatedStickerPack);
+        copy.setAndroidPlayStoreLink(stickerPack.androidPlayStoreLink);
+        copy.setIosAppStoreLink(stickerPack.iosAppStoreLink);
+        final List<Sticker> stickers = stickerPack.getStickers();
+        final List<Sticker> stickerCopies = new ArrayList<>(stickers.size());
+        for (Sticker sticker : stickers) {
+            final Sticker stickerCopy = new Sticker(sticker.imageFileName, sticker.emojis, sticker.accessibilityText);
+            stickerCopy.setSize(getAssetSize(catalog, stickerPackDatabase, stickerPack.identifier, sticker.imageFileName));
+            stickerCopy.setBlobKey(getBlobKey(catalog, stickerPack.identifier, sticker.imageFileName));
+            stickerCopies.add(stickerCopy);
+        }
+        copy.setStickers(stickerCopies);
+        return copy;
+    }
+
+    //null for stored files and bundled files that are not in the sticker bundle.
+    @Nullable
+    static String getBlobKey(@NonNull StickerCatalog catalog, @NonNull String identifier, @NonNull String fileName) {
+        final StickerAsset asset = catalog.getAsset(identifier, fileName);
+        return asset != null ? asset.blobKey : null;
+    }
+
+    /**
+     * Sizes of bundled files are known when the apk asset table was read, stored files are on disk.
+     */
+    static long getAssetSize(@NonNull StickerCatalog catalog, @NonNull StickerPackDatabase stickerPackDatabase, @NonNull String identifier, @NonNull String fileName) {
+        final StickerAsset asset = catalog.getAsset(identifier, fileName);
+        if (asset != null) {
+            return asset.length != ApkAssetTable.UNKNOWN ? asset.length : Sticker.UNKNOWN_SIZE;
+        }
+        final File file = new File(stickerPackDatabase.getPackDirectory(identifier), fileName);
+        return file.isFile() ? file.length() : Sticker.UNKNOWN_SIZE;
+    }
+
+    @NonNull
+    private static StickerCatalog readContentFile(@NonNull Context context, @Nullable ApkAssetTable apkAssetTable, @Nullable StickerBundle stickerBundle, long version) {
+        //prefer the catalog index compiled at build time, it is mapped instead of parsed.
+        try {
+            final StickerCatalogIndex catalogIndex = StickerCatalogIndex.open(context.getAssets());
+            if (catalogIndex != null) {
+                return new StickerCatalog(catalogIndex.readStickerPacks(), apkAssetTable, stickerBundle, version);
+            }
+        } catch (IOException | IllegalStateException e) {
+            Log.w(context.getPackageName(), StickerCatalogIndex.INDEX_FILE_NAME + " could not be read, falling back to " + CONTENT_FILE_NAME, e);
+        }
+        try (InputStream contentsInputStream = context.getAssets().open(CONTENT_FILE_NAME)) {
+            return new StickerCatalog(LazyContentFileParser.parseStickerPacks(contentsInputStream), apkAssetTable, stickerBundle, version);
+        } catch (IOException | IllegalStateException e) {
+            throw new RuntimeException(CONTENT_FILE_NAME + " file has some issues: " + e.getMessage(), e);
+        }
+    }
+
+    //called with the lock held by the catalog loads.
+    private void readApkAssets() {
+        if (apkAssetsRead) {
+            return;
+        }
+        apkAssetsRead = true;
+        try {
+            apkAssetTable = ApkAssetTable.open(new File(context.getApplicationInfo().sourceDir));
+            readAhead = new StickerReadAhead(apkAssetTable);
+        } catch (IOException | IllegalStateException e) {
+            Log.w(context.getPackageName(), "apk asset table could not be read, assets are opened through AssetManager", e);
+        }
+        //through the table when there is one, so the offsets of its blobs are offsets in the apk. The
+        //bundled files are not in the apk on their own, so AssetManager is tried before giving up on it.
+        if (apkAssetTable != null) {
+            try {
+                stickerBundle = StickerBundle.open(apkAssetTable);
+            } catch (IOException | IllegalStateException e) {
+                Log.w(context.getPackageName(), StickerBundle.ASSET_PATH + " could not be read from the apk asset table, opening it through AssetManager", e);
+            }
+        }
+        if (stickerBundle == null) {
+            try {
+                stickerBundle = StickerBundle.open(context.getAssets());
+            } catch (IOException | IllegalStateException e) {
+                Log.e(context.getPackageName(), StickerBundle.ASSET_PATH + " could not be read, bundled stickers cannot be served", e);
+            }
+        }
+    }
+}
@@ -13,22 +13,35 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
+import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
+import android.content.res.Resources;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 public class StickerContentProvider extends ContentProvider {
@@ -53,14 +66,13 @@ public class StickerContentProvider extends ContentProvider {
     public static final String STICKER_FILE_NAME_IN_QUERY = "sticker_file_name";
     public static final String STICKER_FILE_EMOJI_IN_QUERY = "sticker_emoji";
     public static final String STICKER_FILE_ACCESSIBILITY_TEXT_IN_QUERY = "sticker_accessibility_text";
-    private static final String CONTENT_FILE_NAME = "contents.json";
 
     public static final Uri AUTHORITY_URI = new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(BuildConfig.CONTENT_PROVIDER_AUTHORITY).appendPath(StickerContentProvider.METADATA).build();
 
     /**
      * Do not change the values in the UriMatcher because otherwise, WhatsApp will not be able to fetch the stickers from the ContentProvider.
      */
-    private static final UriMatcher MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+    private static final UriMatcher MATCHER = buildUriMatcher(BuildConfig.CONTENT_PROVIDER_AUTHORITY);
     private static final String METADATA = "metadata";
     private static final int METADATA_CODE = 1;
 
@@ -72,33 +84,87 @@ public class StickerContentProvider extends ContentProvider {
     static final String STICKERS_ASSET = "stickers_asset";
     private static final int STICKERS_ASSET_CODE = 4;
 
-    private static final int STICKER_PACK_TRAY_ICON_CODE = 5;
+    //debug builds only, the counters of StickerProviderMetrics as (name, value) rows.
+    private static final String METRICS = "metrics";
+    private static final int METRICS_CODE = 5;
 
-    private List<StickerPack> stickerPackList;
+    /**
+     * Query parameters of metadata and stickers/&lt;identifier&gt; uris limiting the rows returned to a
+     * page, in the same order as without them. The cursor's extras then hold the number of rows without
+     * paging under {@link CatalogCursor#EXTRA_TOTAL_COUNT}. Queries without them return every row.
+     */
+    static final String QUERY_PARAMETER_LIMIT = "limit";
+    static final String QUERY_PARAMETER_OFFSET = "offset";
 
-    @Override
-    public boolean onCreate() {
-        final String authority = BuildConfig.CONTENT_PROVIDER_AUTHORITY;
-        if (!authority.startsWith(Objects.requireNonNull(getContext()).getPackageName())) {
-            throw new IllegalStateException("your authority (" + authority + ") for the content provider should start with your package name: " + getContext().getPackageName());
-        }
+    //a file of the sticker bundle by its blob key, for the app's own views, see StickerBundle.
+    static final String STICKER_BLOB = "sticker_blob";
+    private static final int STICKER_BLOB_CODE = 6;
+
+    //not a uri, the code METHOD_GET_CATALOG calls are recorded under.
+    private static final int GET_CATALOG_CODE = 7;
+
+    //indexed by match code, UriMatcher.NO_MATCH is recorded as unknown.
+    private static final String[] CODE_NAMES = {"unknown", METADATA, "metadata_single_pack", STICKERS, STICKERS_ASSET, METRICS, STICKER_BLOB, "get_catalog"};
+
+    /**
+     * Re-reads the bundled catalog and swaps it in, only accepted from this app's own process uid.
+     */
+    static final String METHOD_RELOAD_CATALOG = "reload_catalog";
+
+    /**
+     * Returns a {@link StickerCatalogPage} with every pack, its stickers and their file sizes. arg is
+     * where the page starts, the {@link StickerCatalogPage#NEXT_PAGE} of the previous one, or null for
+     * the first page. Only accepted from this app and apps signed with the same certificate.
+     */
+    static final String METHOD_GET_CATALOG = "get_catalog";
+
+    //the catalog and the apk files it is served from, shared with the app's own screens.
+    private StickerCatalogRepository repository;
+    private final StickerProviderMetrics metrics = new StickerProviderMetrics(CODE_NAMES);
+    private StickerThumbnailCache thumbnailCache;
+    private final StickerQueryCache queryCache = new StickerQueryCache();
+    private StickerFileAdmission fileAdmission;
+
+    @NonNull
+    private static UriMatcher buildUriMatcher(@NonNull String authority) {
+        final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
 
         //the call to get the metadata for the sticker packs.
-        MATCHER.addURI(authority, METADATA, METADATA_CODE);
+        matcher.addURI(authority, METADATA, METADATA_CODE);
 
         //the call to get the metadata for single sticker pack. * represent the identifier
-        MATCHER.addURI(authority, METADATA + "/*", METADATA_CODE_FOR_SINGLE_PACK);
+        matcher.addURI(authority, METADATA + "/*", METADATA_CODE_FOR_SINGLE_PACK);
 
         //gets the list of stickers for a sticker pack, * respresent the identifier.
-        MATCHER.addURI(authority, STICKERS + "/*", STICKERS_CODE);
+        matcher.addURI(authority, STICKERS + "/*", STICKERS_CODE);
 
-        for (StickerPack stickerPack : getStickerPackList()) {
-            MATCHER.addURI(authority, STICKERS_ASSET + "/" + stickerPack.identifier + "/" + stickerPack.trayImageFile, STICKER_PACK_TRAY_ICON_CODE);
-            for (Sticker sticker : stickerPack.getStickers()) {
-                MATCHER.addURI(authority, STICKERS_ASSET + "/" + stickerPack.identifier + "/" + sticker.imageFileName, STICKERS_ASSET_CODE);
-            }
+        //gets a tray image or sticker file, * represent the identifier and the file name. the file is
+        //checked against the pack when it is opened, so the catalog is not read to build the matcher.
+        matcher.addURI(authority, STICKERS_ASSET + "/*/*", STICKERS_ASSET_CODE);
+
+        //gets a file of the sticker bundle, * represent the blob key. a file shared by several packs has
+        //one uri, so the app's image cache holds it once.
+        matcher.addURI(authority, STICKER_BLOB + "/*", STICKER_BLOB_CODE);
+
+        if (BuildConfig.DEBUG) {
+            matcher.addURI(authority, METRICS, METRICS_CODE);
         }
 
+        return matcher;
+    }
+
+    @Override
+    public boolean onCreate() {
+        final String authority = BuildConfig.CONTENT_PROVIDER_AUTHORITY;
+        if (!authority.startsWith(Objects.requireNonNull(getContext()).getPackageName())) {
+            throw new IllegalStateException("your authority (" + authority + ") for the content provider should start with your package name: " + getContext().getPackageName());
+        }
+        repository = StickerCatalogRepository.getInstance(getContext());
+        thumbnailCache = new StickerThumbnailCache(getContext().getCacheDir());
+        final Resources resources = getContext().getResources();
+        fileAdmission = new StickerFileAdmission(resources.getInteger(R.integer.sticker_provider_max_open_files),
+                resources.getInteger(R.integer.sticker_provider_max_open_files_per_caller), resources.getInteger(R.integer.sticker_provider_open_file_timeout_ms));
+        //the catalog is read on the first query or file request instead of here, on the main thread.
         return true;
     }
 
@@ -106,25 +172,121 @@ public class StickerContentProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
         final int code = MATCHER.match(uri);
-        if (code == METADATA_CODE) {
-            return getPackForAllStickerPacks(uri);
-        } else if (code == METADATA_CODE_FOR_SINGLE_PACK) {
-            return getCursorForSingleStickerPack(uri);
-        } else if (code == STICKERS_CODE) {
-            return getStickersForAStickerPack(uri);
-        } else {
-            throw new IllegalArgumentException("Unknown URI: " + uri);
+        final long start = SystemClock.elapsedRealtimeNanos();
+        Cursor cursor = null;
+        boolean failed = true;
+        try {
+            if (code == METADATA_CODE) {
+                cursor = getPackForAllStickerPacks(uri, projection, StickerPackQuery.parse(selection, selectionArgs, sortOrder));
+            } else if (code == METADATA_CODE_FOR_SINGLE_PACK) {
+                cursor = getCursorForSingleStickerPack(uri, projection, StickerPackQuery.parse(selection, selectionArgs, null));
+            } else if (code == STICKERS_CODE) {
+                cursor = getStickersForAStickerPack(uri, projection);
+            } else if (code == METRICS_CODE) {
+                cursor = getMetrics();
+            } else {
+                throw new IllegalArgumentException("Unknown URI: " + uri);
+            }
+            failed = false;
+            return cursor;
+        } finally {
+            metrics.recordCall(code, SystemClock.elapsedRealtimeNanos() - start, failed, cursor == null || cursor.getCount() == 0);
         }
     }
 
     @Nullable
     @Override
     public AssetFileDescriptor openAssetFile(@NonNull Uri uri, @NonNull String mode) {
+        //WhatsApp never passes a max dimension, it always gets the original file.
+        return openImageAsset(uri, getTrustedMaxDimension(getIntQueryParameter(uri, StickerThumbnailCache.MAX_DIMENSION)));
+    }
+
+    /**
+     * Same as {@link #openAssetFile}, and also returns a downscaled tray image or sticker to this app
+     * when opts holds {@link StickerThumbnailCache#MAX_DIMENSION}.
+     */
+    @Nullable
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter, @Nullable Bundle opts) throws FileNotFoundException {
+        final int maxDimension = getTrustedMaxDimension(opts != null ? opts.getInt(StickerThumbnailCache.MAX_DIMENSION, 0) : 0);
+        if (maxDimension <= 0) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        return openImageAsset(uri, maxDimension);
+    }
+
+    //only this app's own views get thumbnails, each one costs a decode, an encode and cache space.
+    private static int getTrustedMaxDimension(int maxDimension) {
+        return maxDimension > 0 && Binder.getCallingUid() == Process.myUid() ? maxDimension : 0;
+    }
+
+    @Nullable
+    private AssetFileDescriptor openImageAsset(@NonNull Uri uri, int maxDimension) {
         final int matchCode = MATCHER.match(uri);
-        if (matchCode == STICKERS_ASSET_CODE || matchCode == STICKER_PACK_TRAY_ICON_CODE) {
-            return getImageAsset(uri);
+        final long start = SystemClock.elapsedRealtimeNanos();
+        AssetFileDescriptor assetFileDescriptor = null;
+        boolean failed = true;
+        try {
+            final String[] file = matchCode == STICKERS_ASSET_CODE || matchCode == STICKER_BLOB_CODE ? getImageAssetFile(uri, matchCode) : null;
+            if (file != null) {
+                assetFileDescriptor = getAdmittedImageAsset(uri, file[0], file[1], maxDimension);
+                if (assetFileDescriptor != null && assetFileDescriptor.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    metrics.recordBytesServed(file[0], assetFileDescriptor.getLength());
+                }
+            }
+            failed = false;
+            return assetFileDescriptor;
+        } finally {
+            metrics.recordCall(matchCode, SystemClock.elapsedRealtimeNanos() - start, failed, assetFileDescriptor == null);
         }
-        return null;
+    }
+
+    /**
+     * The file is opened through the request's permit, which stays held until the caller closes the
+     * descriptor, so the files handed out and not closed yet are bounded. Requests that wait too long
+     * get no file.
+     */
+    @Nullable
+    private AssetFileDescriptor getAdmittedImageAsset(@NonNull Uri uri, @NonNull String identifier, @NonNull String fileName, int maxDimension) {
+        final String callingPackage = getCallingPackage();
+        final StickerFileAdmission.Permit permit = fileAdmission.acquire(callingPackage);
+        if (permit == null) {
+            Log.w(Objects.requireNonNull(getContext()).getPackageName(), "too many files open, refusing " + uri + " for " + callingPackage);
+            return null;
+        }
+        try {
+            return getImageAsset(uri, identifier, fileName, maxDimension, permit);
+        } finally {
+            permit.close();
+        }
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("StickerContentProvider metrics:");
+        StickerProviderMetrics.dump(writer, getMetricsSnapshot());
+    }
+
+    @NonNull
+    private Map<String, Long> getMetricsSnapshot() {
+        final Map<String, Long> snapshot = metrics.snapshot();
+        snapshot.put("query_cache.hits", queryCache.getHitCount());
+        snapshot.put("query_cache.misses", queryCache.getMissCount());
+        fileAdmission.snapshot(snapshot);
+        final StickerReadAhead readAhead = repository.getReadAhead();
+        if (readAhead != null) {
+            readAhead.snapshot(snapshot);
+        }
+        return snapshot;
+    }
+
+    @NonNull
+    private Cursor getMetrics() {
+        final MatrixCursor cursor = new MatrixCursor(new String[]{"name", "value"});
+        for (Map.Entry<String, Long> value : getMetricsSnapshot().entrySet()) {
+            cursor.addRow(new Object[]{value.getKey(), value.getValue()});
+        }
+        return cursor;
     }
 
 
@@ -139,100 +301,233 @@ public class StickerContentProvider extends ContentProvider {
             case STICKERS_CODE:
                 return "vnd.android.cursor.dir/vnd." + BuildConfig.CONTENT_PROVIDER_AUTHORITY + "." + STICKERS;
             case STICKERS_ASSET_CODE:
-                return "image/webp";
-            case STICKER_PACK_TRAY_ICON_CODE:
-                return "image/png";
+            case STICKER_BLOB_CODE:
+                final String[] file = getImageAssetFile(uri, matchCode);
+                return file != null ? getImageAssetType(file[0], file[1]) : null;
+            case METRICS_CODE:
+                return "vnd.android.cursor.dir/vnd." + BuildConfig.CONTENT_PROVIDER_AUTHORITY + "." + METRICS;
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
     }
 
-    private synchronized void readContentFile(@NonNull Context context) {
-        try (InputStream contentsInputStream = context.getAssets().open(CONTENT_FILE_NAME)) {
-            stickerPackList = ContentFileParser.parseStickerPacks(contentsInputStream);
-        } catch (IOException | IllegalStateException e) {
-            throw new RuntimeException(CONTENT_FILE_NAME + " file has some issues: " + e.getMessage(), e);
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (METHOD_RELOAD_CATALOG.equals(method)) {
+            if (Binder.getCallingUid() != Process.myUid()) {
+                throw new SecurityException(method + " can only be called by " + Objects.requireNonNull(getContext()).getPackageName());
+            }
+            reloadStickerCatalog();
+            return null;
+        }
+        if (METHOD_GET_CATALOG.equals(method)) {
+            enforceTrustedCaller(method);
+            final long start = SystemClock.elapsedRealtimeNanos();
+            Bundle page = null;
+            boolean failed = true;
+            try {
+                page = getCatalogPage(arg);
+                failed = false;
+                return page;
+            } finally {
+                metrics.recordCall(GET_CATALOG_CODE, SystemClock.elapsedRealtimeNanos() - start, failed, page == null);
+            }
         }
+        return super.call(method, arg, extras);
     }
 
-    private List<StickerPack> getStickerPackList() {
-        if (stickerPackList == null) {
-            readContentFile(Objects.requireNonNull(getContext()));
+    //this app, and the companion apps signed with the same certificate.
+    private void enforceTrustedCaller(@NonNull String method) {
+        final int callingUid = Binder.getCallingUid();
+        final Context context = Objects.requireNonNull(getContext());
+        if (callingUid != Process.myUid() && context.getPackageManager().checkSignatures(callingUid, Process.myUid()) != PackageManager.SIGNATURE_MATCH) {
+            throw new SecurityException(method + " can only be called by apps signed like " + context.getPackageName());
         }
-        return stickerPackList;
     }
 
-    private Cursor getPackForAllStickerPacks(@NonNull Uri uri) {
-        return getStickerPackInfo(uri, getStickerPackList());
+    @NonNull
+    private Bundle getCatalogPage(@Nullable String pageStart) {
+        int start = 0;
+        if (pageStart != null) {
+            try {
+                start = Integer.parseInt(pageStart);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid page start: " + pageStart);
+            }
+        }
+        final StickerPackDatabase stickerPackDatabase = getStickerPackDatabase();
+        final StickerCatalog catalog = getStickerCatalog();
+        final long databaseVersion = stickerPackDatabase.getVersion();
+        final List<StickerPack> stickerPacks = getAllStickerPacks(catalog, stickerPackDatabase, databaseVersion, StickerPackQuery.ALL);
+        //both are counters, the pair is unique as long as the database changes fewer than 2^32 times.
+        final long catalogVersion = (catalog.getVersion() << 32) | (databaseVersion & 0xffffffffL);
+        return StickerCatalogPage.write(stickerPacks, start, catalogVersion, (stickerPack, fileName) -> StickerCatalogRepository.getAssetSize(catalog, stickerPackDatabase, stickerPack.identifier, fileName),
+                (stickerPack, fileName) -> StickerCatalogRepository.getBlobKey(catalog, stickerPack.identifier, fileName));
     }
 
-    private Cursor getCursorForSingleStickerPack(@NonNull Uri uri) {
-        final String identifier = uri.getLastPathSegment();
-        for (StickerPack stickerPack : getStickerPackList()) {
-            if (identifier.equals(stickerPack.identifier)) {
-                return getStickerPackInfo(uri, Collections.singletonList(stickerPack));
-            }
+    @NonNull
+    private StickerCatalog getStickerCatalog() {
+        return repository.getStickerCatalog();
+    }
+
+    /**
+     * Builds a new catalog while queries keep being served from the current one, then swaps it in.
+     * Cached query rows belong to the previous catalog, so they are not used anymore. Only the packs
+     * that differ from the previous catalog are notified.
+     */
+    private void reloadStickerCatalog() {
+        final Context context = Objects.requireNonNull(getContext());
+        final StickerCatalogDiff diff = repository.reloadStickerCatalog();
+        if (diff == null) {
+            //nothing was served from this process yet, but observers may have read an older apk.
+            context.getContentResolver().notifyChange(AUTHORITY_URI, null);
+            return;
         }
+        if (BuildConfig.DEBUG) {
+            Log.d(context.getPackageName(), "catalog reloaded, metadata changed: " + diff.changedMetadata + ", stickers changed: " + diff.changedStickers);
+        }
+        notifyChange(context.getContentResolver(), diff);
+    }
 
-        return getStickerPackInfo(uri, new ArrayList<>());
+    /**
+     * Notifies the metadata/&lt;identifier&gt; and stickers/&lt;identifier&gt; uris of the packs that
+     * changed. metadata itself is never notified, it would reach the observers of every pack, and the
+     * cursors over all packs observe it along with its descendants, so they hear about each pack anyway.
+     */
+    static void notifyChange(@NonNull ContentResolver contentResolver, @NonNull StickerCatalogDiff diff) {
+        for (String identifier : diff.changedMetadata) {
+            contentResolver.notifyChange(getPackUri(METADATA, identifier), null);
+        }
+        for (String identifier : diff.changedStickers) {
+            contentResolver.notifyChange(getPackUri(STICKERS, identifier), null);
+        }
     }
 
     @NonNull
-    private Cursor getStickerPackInfo(@NonNull Uri uri, @NonNull List<StickerPack> stickerPackList) {
-        MatrixCursor cursor = new MatrixCursor(
-                new String[]{
-                        STICKER_PACK_IDENTIFIER_IN_QUERY,
-                        STICKER_PACK_NAME_IN_QUERY,
-                        STICKER_PACK_PUBLISHER_IN_QUERY,
-                        STICKER_PACK_ICON_IN_QUERY,
-                        ANDROID_APP_DOWNLOAD_LINK_IN_QUERY,
-                        IOS_APP_DOWNLOAD_LINK_IN_QUERY,
-                        PUBLISHER_EMAIL,
-                        PUBLISHER_WEBSITE,
-                        PRIVACY_POLICY_WEBSITE,
-                        LICENSE_AGREENMENT_WEBSITE,
-                        IMAGE_DATA_VERSION,
-                        AVOID_CACHE,
-                        ANIMATED_STICKER_PACK,
-                });
-        for (StickerPack stickerPack : stickerPackList) {
-            MatrixCursor.RowBuilder builder = cursor.newRow();
-            builder.add(stickerPack.identifier);
-            builder.add(stickerPack.name);
-            builder.add(stickerPack.publisher);
-            builder.add(stickerPack.trayImageFile);
-            builder.add(stickerPack.androidPlayStoreLink);
-            builder.add(stickerPack.iosAppStoreLink);
-            builder.add(stickerPack.publisherEmail);
-            builder.add(stickerPack.publisherWebsite);
-            builder.add(stickerPack.privacyPolicyWebsite);
-            builder.add(stickerPack.licenseAgreementWebsite);
-            builder.add(stickerPack.imageDataVersion);
-            builder.add(stickerPack.avoidCache ? 1 : 0);
-            builder.add(stickerPack.animatedStickerPack ? 1 : 0);
-        }
-        cursor.setNotificationUri(Objects.requireNonNull(getContext()).getContentResolver(), uri);
-        return cursor;
+    private static Uri getPackUri(@NonNull String path, @NonNull String identifier) {
+        return new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(BuildConfig.CONTENT_PROVIDER_AUTHORITY).appendPath(path).appendPath(identifier).build();
     }
 
     @NonNull
-    private Cursor getStickersForAStickerPack(@NonNull Uri uri) {
-        final String identifier = uri.getLastPathSegment();
-        MatrixCursor cursor = new MatrixCursor(new String[]{STICKER_FILE_NAME_IN_QUERY, STICKER_FILE_EMOJI_IN_QUERY, STICKER_FILE_ACCESSIBILITY_TEXT_IN_QUERY});
-        for (StickerPack stickerPack : getStickerPackList()) {
-            if (identifier.equals(stickerPack.identifier)) {
-                for (Sticker sticker : stickerPack.getStickers()) {
-                    cursor.addRow(new Object[]{sticker.imageFileName, TextUtils.join(",", sticker.emojis), sticker.accessibilityText});
+    private StickerPackDatabase getStickerPackDatabase() {
+        return repository.getStickerPackDatabase();
+    }
+
+    private Cursor getPackForAllStickerPacks(@NonNull Uri uri, @Nullable String[] projection, @NonNull StickerPackQuery query) {
+        final StickerPackDatabase stickerPackDatabase = getStickerPackDatabase();
+        final List<StickerPack> stickerPacks = getAllStickerPacks(getStickerCatalog(), stickerPackDatabase, stickerPackDatabase.getVersion(), query);
+        return withNotificationUri(uri, withPage(uri, new StickerPackCursor(stickerPacks, projection)));
+    }
+
+    //the bundled packs matching the query followed by the stored ones, or in the query's sort order.
+    @NonNull
+    private List<StickerPack> getAllStickerPacks(@NonNull StickerCatalog catalog, @NonNull StickerPackDatabase stickerPackDatabase, long databaseVersion, @NonNull StickerPackQuery query) {
+        final StickerQueryCache.RowsBuilder<List<StickerPack>> rowsBuilder = () -> {
+            final List<StickerPack> catalogStickerPacks = catalog.query(query);
+            final List<StickerPack> storedStickerPacks = stickerPackDatabase.getStickerPacks();
+            if (storedStickerPacks.isEmpty()) {
+                return catalogStickerPacks;
+            }
+            final List<StickerPack> allStickerPacks = new ArrayList<>(catalogStickerPacks);
+            for (StickerPack storedStickerPack : storedStickerPacks) {
+                if (query.matches(storedStickerPack)) {
+                    allStickerPacks.add(storedStickerPack);
                 }
             }
+            return Collections.unmodifiableList(query.sort(allStickerPacks));
+        };
+        //filtered queries are built every time, their keys come from the caller.
+        return Objects.requireNonNull(query.getKey() == null ? queryCache.getRows(METADATA_CODE, null, catalog, databaseVersion, rowsBuilder) : rowsBuilder.buildRows());
+    }
+
+    private Cursor getCursorForSingleStickerPack(@NonNull Uri uri, @Nullable String[] projection, @NonNull StickerPackQuery query) {
+        final String identifier = uri.getLastPathSegment();
+        final StickerPackDatabase stickerPackDatabase = getStickerPackDatabase();
+        final StickerCatalog catalog = getStickerCatalog();
+        final StickerQueryCache.RowsBuilder<List<StickerPack>> rowsBuilder = () -> {
+            StickerPack stickerPack = catalog.getStickerPack(identifier);
+            if (stickerPack == null) {
+                stickerPack = stickerPackDatabase.getStickerPack(identifier);
+            }
+            if (stickerPack != null && query.matches(stickerPack)) {
+                return Collections.singletonList(stickerPack);
+            }
+            return null;
+        };
+        //filtered queries are built every time, their keys come from the caller.
+        final List<StickerPack> stickerPacks = query.getKey() == null
+                ? queryCache.getRows(METADATA_CODE_FOR_SINGLE_PACK, identifier, catalog, stickerPackDatabase.getVersion(), rowsBuilder)
+                : rowsBuilder.buildRows();
+        return withNotificationUri(uri, new StickerPackCursor(stickerPacks != null ? stickerPacks : Collections.<StickerPack>emptyList(), projection));
+    }
+
+    @NonNull
+    private Cursor getStickersForAStickerPack(@NonNull Uri uri, @Nullable String[] projection) {
+        final String identifier = uri.getLastPathSegment();
+        final StickerPackDatabase stickerPackDatabase = getStickerPackDatabase();
+        final StickerCatalog catalog = getStickerCatalog();
+        final StickerReadAhead readAhead = repository.getReadAhead();
+        if (readAhead != null && catalog.getStickerPack(identifier) != null) {
+            //the caller is likely to open the pack's files next.
+            readAhead.onStickersQueried(identifier);
         }
+        final StickerCursor.Rows rows = queryCache.getRows(STICKERS_CODE, identifier, catalog, stickerPackDatabase.getVersion(), () -> {
+            final StickerPack stickerPack = catalog.getStickerPack(identifier);
+            final List<Sticker> stickers = stickerPack != null ? stickerPack.getStickers() : stickerPackDatabase.getStickers(identifier);
+            //stored packs always have stickers, so none means there is no such pack.
+            return stickers.isEmpty() ? null : new StickerCursor.Rows(stickers);
+        });
+        return withNotificationUri(uri, withPage(uri, new StickerCursor(rows != null ? rows : new StickerCursor.Rows(Collections.<Sticker>emptyList()), projection)));
+    }
+
+    /**
+     * Pages are cut from the cached rows, so every page of a query is read from the same rows.
+     */
+    @NonNull
+    private static CatalogCursor withPage(@NonNull Uri uri, @NonNull CatalogCursor cursor) {
+        final int limit = getIntQueryParameter(uri, QUERY_PARAMETER_LIMIT);
+        final int offset = getIntQueryParameter(uri, QUERY_PARAMETER_OFFSET);
+        if (limit >= 0 || offset >= 0) {
+            cursor.setPage(Math.max(offset, 0), limit >= 0 ? limit : Integer.MAX_VALUE);
+        }
+        return cursor;
+    }
+
+    //-1 if the parameter is missing, negative or not a number, in which case it is ignored.
+    private static int getIntQueryParameter(@NonNull Uri uri, @NonNull String name) {
+        final String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(Integer.parseInt(value), -1);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @NonNull
+    private Cursor withNotificationUri(@NonNull Uri uri, @NonNull Cursor cursor) {
         cursor.setNotificationUri(Objects.requireNonNull(getContext()).getContentResolver(), uri);
         return cursor;
     }
 
-    private AssetFileDescriptor getImageAsset(Uri uri) throws IllegalArgumentException {
-        AssetManager am = Objects.requireNonNull(getContext()).getAssets();
+    /**
+     * The identifier and file name a stickers_asset or sticker_blob uri points to. A blob is served as
+     * the first file stored in it, they all have the same content.
+     *
+     * @return null if there is no such blob.
+     */
+    @Nullable
+    private String[] getImageAssetFile(@NonNull Uri uri, int matchCode) throws IllegalArgumentException {
         final List<String> pathSegments = uri.getPathSegments();
+        if (matchCode == STICKER_BLOB_CODE) {
+            //the bundle is read with the first catalog.
+            getStickerCatalog();
+            final StickerBundle stickerBundle = repository.getStickerBundle();
+            return stickerBundle != null ? stickerBundle.getFile(pathSegments.get(1)) : null;
+        }
         if (pathSegments.size() != 3) {
             throw new IllegalArgumentException("path segments should be 3, uri is: " + uri);
         }
@@ -244,32 +539,125 @@ public class StickerContentProvider extends ContentProvider {
         if (TextUtils.isEmpty(fileName)) {
             throw new IllegalArgumentException("file name is empty, uri: " + uri);
         }
+        return new String[]{identifier, fileName};
+    }
+
+    private AssetFileDescriptor getImageAsset(@NonNull Uri uri, @NonNull String identifier, @NonNull String fileName, int maxDimension, @NonNull StickerFileAdmission.Permit permit) {
+        AssetManager am = Objects.requireNonNull(getContext()).getAssets();
         //making sure the file that is trying to be fetched is in the list of stickers.
-        for (StickerPack stickerPack : getStickerPackList()) {
-            if (identifier.equals(stickerPack.identifier)) {
-                if (fileName.equals(stickerPack.trayImageFile)) {
-                    return fetchFile(uri, am, fileName, identifier);
-                } else {
-                    for (Sticker sticker : stickerPack.getStickers()) {
-                        if (fileName.equals(sticker.imageFileName)) {
-                            return fetchFile(uri, am, fileName, identifier);
-                        }
-                    }
+        final StickerCatalog catalog = getStickerCatalog();
+        final StickerAsset asset = catalog.getAsset(identifier, fileName);
+        if (asset != null) {
+            final StickerReadAhead readAhead = repository.getReadAhead();
+            if (readAhead != null) {
+                readAhead.onAssetOpened(catalog, asset);
+            }
+            if (maxDimension > 0) {
+                final AssetFileDescriptor thumbnail = getThumbnail(uri, Objects.requireNonNull(catalog.getStickerPack(identifier)), asset, maxDimension, () -> openAssetStream(uri, am, asset), permit);
+                if (thumbnail != null) {
+                    return thumbnail;
                 }
             }
+            return fetchFile(uri, am, asset, permit);
         }
-        return null;
+        return getStoredImageAsset(uri, identifier, fileName, maxDimension, permit);
     }
 
-    private AssetFileDescriptor fetchFile(@NonNull Uri uri, @NonNull AssetManager am, @NonNull String fileName, @NonNull String identifier) {
+    /**
+     * Returns null when there is no smaller version to serve, the original is served instead.
+     */
+    @Nullable
+    private AssetFileDescriptor getThumbnail(@NonNull Uri uri, @NonNull StickerPack stickerPack, @NonNull StickerAsset asset, int maxDimension,
+                                             @NonNull StickerThumbnailCache.ImageSource source, @NonNull StickerFileAdmission.Permit permit) {
         try {
-            return am.openFd(identifier + "/" + fileName);
+            final File thumbnail = thumbnailCache.getThumbnail(stickerPack, asset, maxDimension, source);
+            return thumbnail != null ? openFile(thumbnail, permit) : null;
         } catch (IOException e) {
+            Log.w(Objects.requireNonNull(getContext()).getPackageName(), "cannot create thumbnail, serving the original, uri:" + uri, e);
+            return null;
+        }
+    }
+
+    @NonNull
+    private static AssetFileDescriptor openFile(@NonNull File file, @NonNull StickerFileAdmission.Permit permit) throws IOException {
+        final ParcelFileDescriptor fileDescriptor = permit.open(file);
+        //the stat size is -1, the same as UNKNOWN_LENGTH, if it is not a regular file.
+        return new AssetFileDescriptor(fileDescriptor, 0, fileDescriptor.getStatSize());
+    }
+
+    @Nullable
+    private String getImageAssetType(@NonNull String identifier, @NonNull String fileName) {
+        final StickerAsset asset = getStickerCatalog().getAsset(identifier, fileName);
+        if (asset != null) {
+            return asset.trayImage ? "image/png" : "image/webp";
+        }
+        final StickerPackDatabase stickerPackDatabase = getStickerPackDatabase();
+        if (stickerPackDatabase.isTrayImage(identifier, fileName)) {
+            return "image/png";
+        }
+        return stickerPackDatabase.containsAsset(identifier, fileName) ? "image/webp" : null;
+    }
+
+    private AssetFileDescriptor getStoredImageAsset(@NonNull Uri uri, @NonNull String identifier, @NonNull String fileName, int maxDimension, @NonNull StickerFileAdmission.Permit permit) {
+        final StickerPackDatabase stickerPackDatabase = getStickerPackDatabase();
+        //making sure the file that is trying to be fetched belongs to a pack in the database.
+        if (!stickerPackDatabase.containsAsset(identifier, fileName)) {
+            return null;
+        }
+        final File file = new File(stickerPackDatabase.getPackDirectory(identifier), fileName);
+        if (maxDimension > 0) {
+            final StickerPack stickerPack = stickerPackDatabase.getStickerPack(identifier);
+            if (stickerPack != null) {
+                final StickerAsset asset = new StickerAsset(identifier, fileName, fileName.equals(stickerPack.trayImageFile), ApkAssetTable.UNKNOWN, ApkAssetTable.UNKNOWN, null);
+                final AssetFileDescriptor thumbnail = getThumbnail(uri, stickerPack, asset, maxDimension, () -> new FileInputStream(file), permit);
+                if (thumbnail != null) {
+                    return thumbnail;
+                }
+            }
+        }
+        try {
+            return openFile(file, permit);
+        } catch (IOException e) {
+            Log.e(Objects.requireNonNull(getContext()).getPackageName(), "IOException when getting stored file, uri:" + uri, e);
+            return null;
+        }
+    }
+
+    /**
+     * With a permit, the file is opened through it when the file the asset is in is known. Otherwise
+     * the descriptor is duplicated or opened by AssetManager, and the permit is released as soon as
+     * the request is served.
+     */
+    private AssetFileDescriptor fetchFile(@NonNull Uri uri, @NonNull AssetManager am, @NonNull StickerAsset asset, @Nullable StickerFileAdmission.Permit permit) {
+        try {
+            //assets only have a blob or an offset when the bundle or the apk asset table was read, which
+            //never change afterwards.
+            if (asset.blobKey != null) {
+                final StickerBundle stickerBundle = Objects.requireNonNull(repository.getStickerBundle());
+                final File apk = stickerBundle.getApk();
+                return permit != null && apk != null ? permit.openFd(apk, asset.startOffset, asset.length) : stickerBundle.openFd(asset.startOffset, asset.length);
+            }
+            if (asset.startOffset != ApkAssetTable.UNKNOWN) {
+                final ApkAssetTable apkAssetTable = Objects.requireNonNull(repository.getApkAssetTable());
+                return permit != null ? permit.openFd(apkAssetTable.getApk(), asset.startOffset, asset.length) : apkAssetTable.openFd(asset.startOffset, asset.length);
+            }
+            return am.openFd(asset.getAssetPath());
+        } catch (IOException | IllegalStateException e) {
             Log.e(Objects.requireNonNull(getContext()).getPackageName(), "IOException when getting asset file, uri:" + uri, e);
             return null;
         }
     }
 
+    @NonNull
+    private InputStream openAssetStream(@NonNull Uri uri, @NonNull AssetManager am, @NonNull StickerAsset asset) throws IOException {
+        //read here and closed, not sent to the caller.
+        final AssetFileDescriptor fileDescriptor = fetchFile(uri, am, asset, null);
+        if (fileDescriptor == null) {
+            throw new IOException("cannot open " + asset.getAssetPath());
+        }
+        return fileDescriptor.createInputStream();
+    }
+
 
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, String[] selectionArgs) {
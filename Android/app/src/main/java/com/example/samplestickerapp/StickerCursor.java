@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Cursor returned for the stickers/&lt;identifier&gt; query, reading each column from the
+ * {@link Sticker}.
+ */
+class StickerCursor extends CatalogCursor {
+    static final String[] COLUMNS = {
+            StickerContentProvider.STICKER_FILE_NAME_IN_QUERY,
+            StickerContentProvider.STICKER_FILE_EMOJI_IN_QUERY,
+            StickerContentProvider.STICKER_FILE_ACCESSIBILITY_TEXT_IN_QUERY,
+    };
+
+    /**
+     * The stickers of a pack along with their emojis joined by ",", which is how they are returned.
+     * Joining them is the only work a row needs, so it is done once when the rows are cached.
+     */
+    static class Rows {
+        @NonNull
+        final List<Sticker> stickers;
+        @NonNull
+        final String[] emojis;
+
+        Rows(@NonNull List<Sticker> stickers) {
+            this.stickers = stickers;
+            this.emojis = new String[stickers.size()];
+            for (int i = 0; i < emojis.length; i++) {
+                emojis[i] = TextUtils.join(",", stickers.get(i).emojis);
+            }
+        }
+    }
+
+    @NonNull
+    private final Rows rows;
+
+    StickerCursor(@NonNull Rows rows, @Nullable String[] projection) {
+        super(COLUMNS, projection);
+        this.rows = rows;
+    }
+
+    @Override
+    int getRowCount() {
+        return rows.emojis.length;
+    }
+
+    @Override
+    boolean isIntegerColumn(int column) {
+        return false;
+    }
+
+    @Override
+    String getStringValue(int row, int column) {
+        switch (column) {
+            case 0:
+                return rows.stickers.get(row).imageFileName;
+            case 1:
+                return rows.emojis[row];
+            case 2:
+                return rows.stickers.get(row).accessibilityText;
+            default:
+                throw new IllegalArgumentException("not a string column: " + column);
+        }
+    }
+
+    @Override
+    long getLongValue(int row, int column) {
+        throw new IllegalArgumentException("not an integer column: " + column);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.content.res.AssetFileDescriptor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds how many files the content provider has handed out and not had closed yet. WhatsApp and
+ * WhatsApp Business can sync at the same time, and each file sent keeps a descriptor open in the
+ * caller and a close notification socket open here until the caller closes it, so without a bound a
+ * burst can run either process out of descriptors.
+ * <p>
+ * A request first takes one of its calling package's permits, then one of the shared permits, both
+ * handed out in arrival order. The file is opened through its {@link Permit}, which is then held
+ * until the descriptor is closed, by the caller or by this process, or until the caller dies. A
+ * package can hold at most maxOpenFilesPerCaller of the shared permits, so one package syncing cannot
+ * keep the other one waiting for all of them. A request that gets no permit within the timeout is
+ * refused rather than queued further.
+ */
+class StickerFileAdmission {
+    @NonNull
+    private final Semaphore permits;
+    private final int maxOpenFilesPerCaller;
+    private final long timeoutNanos;
+    private final ConcurrentHashMap<String, Semaphore> callerPermits = new ConcurrentHashMap<>();
+    //close notifications of the descriptors handed out are delivered on this thread.
+    @NonNull
+    private final Handler closeHandler;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong maxWaiting = new AtomicLong();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicInteger openFiles = new AtomicInteger();
+    private final AtomicLong abandonedFiles = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    StickerFileAdmission(int maxOpenFiles, int maxOpenFilesPerCaller, long timeoutMillis) {
+        this.permits = new Semaphore(Math.max(maxOpenFiles, 1), true);
+        this.maxOpenFilesPerCaller = Math.max(Math.min(maxOpenFilesPerCaller, maxOpenFiles), 1);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final HandlerThread closeThread = new HandlerThread("StickerFileAdmission");
+        closeThread.start();
+        this.closeHandler = new Handler(closeThread.getLooper());
+    }
+
+    /**
+     * Waits for a permit for the caller. {@link Permit#close} has to be called once the request is
+     * served, the permit is only kept past it if a file was opened through it.
+     *
+     * @param callingPackage null when it is not known.
+     * @return null if no permit could be had within the timeout.
+     */
+    @Nullable
+    Permit acquire(@Nullable String callingPackage) {
+        final Semaphore callerSemaphore = getCallerPermits(callingPackage);
+        final long start = System.nanoTime();
+        updateMax(maxWaiting, waiting.incrementAndGet());
+        boolean acquired = false;
+        try {
+            if (callerSemaphore.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                final long remainingNanos = timeoutNanos - (System.nanoTime() - start);
+                acquired = permits.tryAcquire(Math.max(remainingNanos, 0), TimeUnit.NANOSECONDS);
+                if (!acquired) {
+                    callerSemaphore.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        final long waitNanos = System.nanoTime() - start;
+        if (!acquired) {
+            timedOut.incrementAndGet();
+            return null;
+        }
+        admitted.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        updateMax(maxWaitNanos, waitNanos);
+        return new Permit(callingPackage);
+    }
+
+    private void release(@Nullable String callingPackage) {
+        permits.release();
+        getCallerPermits(callingPackage).release();
+    }
+
+    /**
+     * Adds the queue depth, the number of requests admitted and refused and the wait times to the
+     * snapshot, under admission.*.
+     */
+    void snapshot(@NonNull Map<String, Long> snapshot) {
+        final long admittedCount = admitted.get();
+        snapshot.put("admission.waiting", (long) waiting.get());
+        snapshot.put("admission.max_waiting", maxWaiting.get());
+        snapshot.put("admission.available_permits", (long) permits.availablePermits());
+        snapshot.put("admission.admitted", admittedCount);
+        snapshot.put("admission.timed_out", timedOut.get());
+        snapshot.put("admission.open_files", (long) openFiles.get());
+        snapshot.put("admission.abandoned_files", abandonedFiles.get());
+        snapshot.put("admission.mean_wait_us", admittedCount > 0 ? totalWaitNanos.get() / admittedCount / 1000 : 0);
+        snapshot.put("admission.max_wait_us", maxWaitNanos.get() / 1000);
+    }
+
+    @NonNull
+    private Semaphore getCallerPermits(@Nullable String callingPackage) {
+        //one entry per package that ever opened a file, there are only a few of them.
+        final String caller = callingPackage != null ? callingPackage : "";
+        Semaphore semaphore = callerPermits.get(caller);
+        if (semaphore == null) {
+            final Semaphore newSemaphore = new Semaphore(maxOpenFilesPerCaller, true);
+            semaphore = callerPermits.putIfAbsent(caller, newSemaphore);
+            if (semaphore == null) {
+                semaphore = newSemaphore;
+            }
+        }
+        return semaphore;
+    }
+
+    /**
+     * A request's admission. At most one file is opened through it, the descriptor sent to the caller.
+     */
+    class Permit {
+        @Nullable
+        private final String callingPackage;
+        private boolean opened;
+
+        private Permit(@Nullable String callingPackage) {
+            this.callingPackage = callingPackage;
+        }
+
+        /**
+         * Opens the file, the permit is released once the descriptor is closed instead of by
+         * {@link #close}.
+         */
+        @NonNull
+        ParcelFileDescriptor open(@NonNull File file) throws IOException {
+            if (opened) {
+                throw new IllegalStateException("a file was already opened with this permit");
+            }
+            //counted before it is opened, the descriptor can be closed before open returns.
+            openFiles.incrementAndGet();
+            final ParcelFileDescriptor fileDescriptor;
+            try {
+                fileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY, closeHandler, e -> {
+                    //e is set when the caller died or leaked the descriptor without closing it.
+                    if (e != null) {
+                        abandonedFiles.incrementAndGet();
+                    }
+                    openFiles.decrementAndGet();
+                    release(callingPackage);
+                });
+            } catch (IOException e) {
+                openFiles.decrementAndGet();
+                throw e;
+            }
+            opened = true;
+            return fileDescriptor;
+        }
+
+        /**
+         * Opens a range of the file, see {@link #open(File)}.
+         */
+        @NonNull
+        AssetFileDescriptor openFd(@NonNull File file, long startOffset, long length) throws IOException {
+            return new AssetFileDescriptor(open(file), startOffset, length);
+        }
+
+        /**
+         * Releases the permit, unless a file was opened through it.
+         */
+        void close() {
+            if (!opened) {
+                release(callingPackage);
+            }
+        }
+    }
+
+    private static void updateMax(@NonNull AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            //retried until the maximum is at least the value.
+        }
+    }
+}
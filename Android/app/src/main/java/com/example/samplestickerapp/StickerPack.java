@@ -11,6 +11,8 @@ package com.example.samplestickerapp;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import androidx.annotation.NonNull;
+
 import java.util.List;
 
 class StickerPack implements Parcelable {
@@ -28,6 +30,7 @@ class StickerPack implements Parcelable {
 
     String iosAppStoreLink;
     private List<Sticker> stickers;
+    private volatile StickerSource stickerSource;
     private long totalSize;
     String androidPlayStoreLink;
     private boolean isWhitelisted;
@@ -91,6 +94,8 @@ class StickerPack implements Parcelable {
         for (Sticker sticker : stickers) {
             totalSize += sticker.size;
         }
+        //cleared last, readers that see no source are guaranteed to see the stickers.
+        this.stickerSource = null;
     }
 
     void setAndroidPlayStoreLink(String androidPlayStoreLink) {
@@ -101,7 +106,23 @@ class StickerPack implements Parcelable {
         this.iosAppStoreLink = iosAppStoreLink;
     }
 
+    /**
+     * Defers reading the stickers until they are first asked for, so packs that are never touched
+     * never pay for their sticker list.
+     */
+    void setStickerSource(@NonNull StickerSource stickerSource) {
+        this.stickerSource = stickerSource;
+    }
+
     List<Sticker> getStickers() {
+        if (stickerSource != null) {
+            synchronized (this) {
+                final StickerSource source = stickerSource;
+                if (source != null) {
+                    setStickers(source.readStickers());
+                }
+            }
+        }
         return stickers;
     }
 
@@ -125,7 +146,7 @@ class StickerPack implements Parcelable {
         dest.writeString(privacyPolicyWebsite);
         dest.writeString(licenseAgreementWebsite);
         dest.writeString(iosAppStoreLink);
-        dest.writeTypedList(stickers);
+        dest.writeTypedList(getStickers());
         dest.writeLong(totalSize);
         dest.writeString(androidPlayStoreLink);
         dest.writeByte((byte) (isWhitelisted ? 1 : 0));
@@ -133,4 +154,9 @@ class StickerPack implements Parcelable {
         dest.writeByte((byte) (avoidCache ? 1 : 0));
         dest.writeByte((byte) (animatedStickerPack ? 1 : 0));
     }
+
+    interface StickerSource {
+        @NonNull
+        List<Sticker> readStickers();
+    }
 }
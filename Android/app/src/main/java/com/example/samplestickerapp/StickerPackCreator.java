@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds a static sticker pack from the user's own images and adds it to the
+ * {@link StickerPackDatabase}. Each image is decoded at the largest power of two sample size that
+ * keeps it at least 512 pixels wide or high, turned upright by its exif orientation, scaled to fit in
+ * 512x512 and centered on a transparent 512x512 canvas, then encoded as webp at the highest quality
+ * that fits the size limit of {@link StickerPackValidator}. The tray image is a 96x96 png of the first
+ * sticker.
+ * <p>
+ * Images are converted by a few workers at once, see sticker_pack_creator_parallelism. Each worker
+ * keeps its bitmaps and encoding buffer for every image it converts, so a pack of 30 allocates the
+ * same few bitmaps as a pack of 3.
+ */
+class StickerPackCreator {
+    static final String TRAY_IMAGE_FILE = "tray.png";
+
+    private static final String CREATION_DIRECTORY = "sticker_pack_creations";
+    private static final int STICKER_DIMENSION = 512;
+    private static final int TRAY_IMAGE_DIMENSION = 96;
+    // tried in order, the first that is small enough is kept.
+    private static final int[] QUALITIES = {90, 80, 70, 60, 50, 40, 30, 20, 10};
+    private static final int MAX_STICKER_BYTES = (int) StickerPackValidator.getMaxStickerFileBytes(false);
+
+    static class StickerSource {
+        @NonNull
+        final Uri image;
+        @NonNull
+        final List<String> emojis;
+        @Nullable
+        final String accessibilityText;
+
+        StickerSource(@NonNull Uri image, @NonNull List<String> emojis, @Nullable String accessibilityText) {
+            this.image = image;
+            this.emojis = emojis;
+            this.accessibilityText = accessibilityText;
+        }
+    }
+
+    interface ProgressListener {
+        /**
+         * Called on a worker thread every time an image was converted.
+         */
+        void onProgress(int stickersCreated, int stickerCount);
+    }
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final StickerPackDatabase stickerPackDatabase;
+    private final int parallelism;
+
+    StickerPackCreator(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        this.stickerPackDatabase = StickerPackDatabase.getInstance(context);
+        this.parallelism = Math.max(1, Math.min(context.getResources().getInteger(R.integer.sticker_pack_creator_parallelism), Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Blocks until every image was converted and the pack added, so it has to be called off the main
+     * thread. Nothing is added if any image cannot be converted, or if the identifier is the one of a
+     * pack bundled in the app, which is checked before any image is decoded.
+     *
+     * @return the pack added, it replaces the stored pack with the same identifier.
+     */
+    @NonNull
+    StickerPack createStickerPack(@NonNull String identifier, @NonNull String name, @NonNull String publisher, @NonNull List<StickerSource> sources,
+                                  @Nullable ProgressListener listener) throws IOException, IllegalStateException {
+        stickerPackDatabase.checkNotBundled(identifier);
+        final List<Sticker> stickers = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            stickers.add(new Sticker((i + 1) + ".webp", sources.get(i).emojis, sources.get(i).accessibilityText));
+        }
+        //a new image data version every time, so WhatsApp and the thumbnail cache do not keep the old images.
+        final StickerPack stickerPack = ContentFileParser.newStickerPack(identifier, name, publisher, TRAY_IMAGE_FILE, null, null, null, null,
+                String.valueOf(System.currentTimeMillis()), false, false);
+        stickerPack.setStickers(stickers);
+        StickerPackValidator.verifyStickerPackMetadata(stickerPack);
+        StickerPackValidator.verifyStickerCount(stickerPack, stickers);
+        for (Sticker sticker : stickers) {
+            StickerPackValidator.verifyStickerMetadata(identifier, sticker, false);
+        }
+
+        final File stagingDirectory = new File(new File(context.getFilesDir(), CREATION_DIRECTORY), UUID.randomUUID().toString());
+        if (!stagingDirectory.mkdirs()) {
+            throw new IOException("cannot create " + stagingDirectory);
+        }
+        try {
+            convertImages(stickerPack, sources, stagingDirectory, listener);
+            stickerPackDatabase.addStickerPack(stickerPack, stagingDirectory);
+            return stickerPack;
+        } finally {
+            StickerPackDatabase.deleteRecursively(stagingDirectory);
+        }
+    }
+
+    /**
+     * Each worker takes the next image until there is none left or one of them failed.
+     */
+    private void convertImages(@NonNull StickerPack stickerPack, @NonNull List<StickerSource> sources, @NonNull File directory,
+                               @Nullable ProgressListener listener) throws IOException, IllegalStateException {
+        final List<Sticker> stickers = stickerPack.getStickers();
+        final int workerCount = Math.min(parallelism, sources.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        final AtomicInteger nextImage = new AtomicInteger();
+        final AtomicInteger createdCount = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<Future<Void>> workers = new ArrayList<>(workerCount);
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                workers.add(executor.submit(() -> {
+                    final Worker worker = new Worker();
+                    try {
+                        int image;
+                        while (!failed.get() && (image = nextImage.getAndIncrement()) < sources.size()) {
+                            worker.convert(stickerPack, stickers.get(image), sources.get(image).image, directory, image == 0);
+                            final int created = createdCount.incrementAndGet();
+                            if (listener != null) {
+                                listener.onProgress(created, sources.size());
+                            }
+                        }
+                        return null;
+                    } catch (IOException | RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        worker.release();
+                    }
+                }));
+            }
+            //every worker is waited for, so none is still writing when the files are moved or deleted.
+            Throwable failure = null;
+            for (Future<Void> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure != null) {
+                throw new IllegalStateException("cannot create sticker pack " + stickerPack.identifier, failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while creating sticker pack " + stickerPack.identifier);
+        } finally {
+            failed.set(true);
+            executor.shutdown();
+        }
+    }
+
+    private class Worker {
+        @NonNull
+        private final Bitmap sticker = Bitmap.createBitmap(STICKER_DIMENSION, STICKER_DIMENSION, Bitmap.Config.ARGB_8888);
+        @NonNull
+        private final Canvas canvas = new Canvas(sticker);
+        @NonNull
+        private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        @NonNull
+        private final Matrix matrix = new Matrix();
+        @NonNull
+        private final RectF orientedRect = new RectF();
+        @NonNull
+        private final EncodeBuffer encoded = new EncodeBuffer(MAX_STICKER_BYTES);
+        //what is encoded is handed to the decoder that reads it back from there.
+        @NonNull
+        private final ByteBuffer decodeBuffer = ByteBuffer.allocateDirect(MAX_STICKER_BYTES);
+        //the last image decoded, its memory is reused for the next one when it is large enough.
+        @Nullable
+        private Bitmap decoded;
+        //the orientation the image is shown in according to its exif data, it is decoded as stored.
+        private int rotationDegrees;
+        private boolean flipped;
+
+        void convert(@NonNull StickerPack stickerPack, @NonNull Sticker stickerInfo, @NonNull Uri image, @NonNull File directory, boolean withTrayImage) throws IOException, IllegalStateException {
+            decode(image);
+            final Bitmap source = decoded;
+            final boolean transposed = rotationDegrees == 90 || rotationDegrees == 270;
+            final int orientedWidth = transposed ? source.getHeight() : source.getWidth();
+            final int orientedHeight = transposed ? source.getWidth() : source.getHeight();
+            final float scale = (float) STICKER_DIMENSION / Math.max(orientedWidth, orientedHeight);
+            final int width = Math.max(1, Math.round(orientedWidth * scale));
+            final int height = Math.max(1, Math.round(orientedHeight * scale));
+            sticker.eraseColor(Color.TRANSPARENT);
+            //flipped then rotated about the origin, moved back to it, then scaled and centered.
+            matrix.setScale(flipped ? -1 : 1, 1);
+            matrix.postRotate(rotationDegrees);
+            orientedRect.set(0, 0, source.getWidth(), source.getHeight());
+            matrix.mapRect(orientedRect);
+            matrix.postTranslate(-orientedRect.left, -orientedRect.top);
+            matrix.postScale((float) width / orientedWidth, (float) height / orientedHeight);
+            matrix.postTranslate((STICKER_DIMENSION - width) / 2, (STICKER_DIMENSION - height) / 2);
+            canvas.drawBitmap(source, matrix, paint);
+
+            encodeSticker(stickerPack.identifier, stickerInfo.imageFileName);
+            final StickerPackValidator.ImageInfo info = StickerPackValidator.ImageInfo.readSticker(encoded.getBuffer(), encoded.size(), decodeBuffer, stickerPack.identifier, stickerInfo.imageFileName);
+            StickerPackValidator.verifySticker(stickerPack.identifier, stickerInfo, false, info);
+            writeFile(new File(directory, stickerInfo.imageFileName));
+            stickerInfo.setSize(info.size);
+
+            if (withTrayImage) {
+                final Bitmap trayImage = Bitmap.createScaledBitmap(sticker, TRAY_IMAGE_DIMENSION, TRAY_IMAGE_DIMENSION, true);
+                try {
+                    encoded.reset();
+                    if (!trayImage.compress(Bitmap.CompressFormat.PNG, 100, encoded)) {
+                        throw new IOException("cannot encode tray image of " + stickerPack.identifier);
+                    }
+                } finally {
+                    trayImage.recycle();
+                }
+                StickerPackValidator.verifyTrayImage(stickerPack, StickerPackValidator.ImageInfo.readTrayImage(encoded.getBuffer(), encoded.size()));
+                writeFile(new File(directory, TRAY_IMAGE_FILE));
+            }
+        }
+
+        /**
+         * Decodes the image into {@link #decoded} with the largest power of two sample size that keeps
+         * it at least {@link #STICKER_DIMENSION} wide or high, in the previous image's bitmap if it fits.
+         */
+        private void decode(@NonNull Uri image) throws IOException, IllegalStateException {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            try (InputStream inputStream = openImage(image)) {
+                BitmapFactory.decodeStream(inputStream, null, options);
+            }
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                throw new IllegalStateException("cannot decode image: " + image);
+            }
+            readOrientation(image);
+            final int largestDimension = Math.max(options.outWidth, options.outHeight);
+            options.inSampleSize = 1;
+            while (largestDimension / (options.inSampleSize * 2) >= STICKER_DIMENSION) {
+                options.inSampleSize *= 2;
+            }
+            final long sampledBytes = 4L * ((options.outWidth + options.inSampleSize - 1) / options.inSampleSize) * ((options.outHeight + options.inSampleSize - 1) / options.inSampleSize);
+            options.inJustDecodeBounds = false;
+            options.inMutable = true;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            if (decoded != null && decoded.getAllocationByteCount() >= sampledBytes) {
+                options.inBitmap = decoded;
+            }
+            Bitmap bitmap;
+            try (InputStream inputStream = openImage(image)) {
+                bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+            } catch (IllegalArgumentException e) {
+                //the decoder could not reuse the bitmap, the image is decoded into a new one.
+                options.inBitmap = null;
+                try (InputStream inputStream = openImage(image)) {
+                    bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+                }
+            }
+            if (bitmap == null) {
+                throw new IllegalStateException("cannot decode image: " + image);
+            }
+            if (decoded != null && decoded != bitmap) {
+                decoded.recycle();
+            }
+            decoded = bitmap;
+        }
+
+        //photos are often stored sideways with an exif orientation, images without one are drawn as stored.
+        private void readOrientation(@NonNull Uri image) {
+            try (InputStream inputStream = openImage(image)) {
+                final ExifInterface exif = new ExifInterface(inputStream);
+                rotationDegrees = exif.getRotationDegrees();
+                flipped = exif.isFlipped();
+            } catch (IOException e) {
+                rotationDegrees = 0;
+                flipped = false;
+            }
+        }
+
+        private void encodeSticker(@NonNull String identifier, @NonNull String fileName) throws IOException, IllegalStateException {
+            for (int quality : QUALITIES) {
+                encoded.reset();
+                if (!sticker.compress(getWebpFormat(), quality, encoded)) {
+                    throw new IOException("cannot encode sticker " + fileName + " of " + identifier);
+                }
+                if (encoded.size() <= MAX_STICKER_BYTES) {
+                    return;
+                }
+            }
+            throw new IllegalStateException("sticker cannot be encoded under " + MAX_STICKER_BYTES / 1024 + " KB, sticker pack identifier: " + identifier + ", filename: " + fileName);
+        }
+
+        private void writeFile(@NonNull File file) throws IOException {
+            try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                encoded.writeTo(outputStream);
+            }
+        }
+
+        @NonNull
+        private InputStream openImage(@NonNull Uri image) throws IOException {
+            final InputStream inputStream = context.getContentResolver().openInputStream(image);
+            if (inputStream == null) {
+                throw new FileNotFoundException("cannot open image: " + image);
+            }
+            return inputStream;
+        }
+
+        void release() {
+            sticker.recycle();
+            if (decoded != null) {
+                decoded.recycle();
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @NonNull
+    private static Bitmap.CompressFormat getWebpFormat() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+
+    //gives the validator the encoded bytes without copying them.
+    private static class EncodeBuffer extends ByteArrayOutputStream {
+        EncodeBuffer(int size) {
+            super(size);
+        }
+
+        @NonNull
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Metadata cursor returned for the metadata and metadata/&lt;identifier&gt; queries, reading each
+ * column from the {@link StickerPack}.
+ */
+class StickerPackCursor extends CatalogCursor {
+    static final String[] COLUMNS = {
+            StickerContentProvider.STICKER_PACK_IDENTIFIER_IN_QUERY,
+            StickerContentProvider.STICKER_PACK_NAME_IN_QUERY,
+            StickerContentProvider.STICKER_PACK_PUBLISHER_IN_QUERY,
+            StickerContentProvider.STICKER_PACK_ICON_IN_QUERY,
+            StickerContentProvider.ANDROID_APP_DOWNLOAD_LINK_IN_QUERY,
+            StickerContentProvider.IOS_APP_DOWNLOAD_LINK_IN_QUERY,
+            StickerContentProvider.PUBLISHER_EMAIL,
+            StickerContentProvider.PUBLISHER_WEBSITE,
+            StickerContentProvider.PRIVACY_POLICY_WEBSITE,
+            StickerContentProvider.LICENSE_AGREENMENT_WEBSITE,
+            StickerContentProvider.IMAGE_DATA_VERSION,
+            StickerContentProvider.AVOID_CACHE,
+            StickerContentProvider.ANIMATED_STICKER_PACK,
+    };
+    private static final int AVOID_CACHE_COLUMN = 11;
+    private static final int ANIMATED_STICKER_PACK_COLUMN = 12;
+
+    @NonNull
+    private final List<StickerPack> stickerPacks;
+
+    StickerPackCursor(@NonNull List<StickerPack> stickerPacks, @Nullable String[] projection) {
+        super(COLUMNS, projection);
+        this.stickerPacks = stickerPacks;
+    }
+
+    @Override
+    int getRowCount() {
+        return stickerPacks.size();
+    }
+
+    @Override
+    boolean isIntegerColumn(int column) {
+        return column == AVOID_CACHE_COLUMN || column == ANIMATED_STICKER_PACK_COLUMN;
+    }
+
+    @Override
+    String getStringValue(int row, int column) {
+        final StickerPack stickerPack = stickerPacks.get(row);
+        switch (column) {
+            case 0:
+                return stickerPack.identifier;
+            case 1:
+                return stickerPack.name;
+            case 2:
+                return stickerPack.publisher;
+            case 3:
+                return stickerPack.trayImageFile;
+            case 4:
+                return stickerPack.androidPlayStoreLink;
+            case 5:
+                return stickerPack.iosAppStoreLink;
+            case 6:
+                return stickerPack.publisherEmail;
+            case 7:
+                return stickerPack.publisherWebsite;
+            case 8:
+                return stickerPack.privacyPolicyWebsite;
+            case 9:
+                return stickerPack.licenseAgreementWebsite;
+            case 10:
+                return stickerPack.imageDataVersion;
+            default:
+                throw new IllegalArgumentException("not a string column: " + column);
+        }
+    }
+
+    @Override
+    long getLongValue(int row, int column) {
+        final StickerPack stickerPack = stickerPacks.get(row);
+        switch (column) {
+            case AVOID_CACHE_COLUMN:
+                return stickerPack.avoidCache ? 1 : 0;
+            case ANIMATED_STICKER_PACK_COLUMN:
+                return stickerPack.animatedStickerPack ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("not an integer column: " + column);
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writable catalog for sticker packs added at runtime, kept next to the read-only packs bundled in
+ * contents.json. Pack metadata lives in the app's private database, indexed by identifier, and the
+ * stickers by (identifier, file name). The image files are stored under {@link #getPackDirectory}.
+ * Adding or removing packs is a single transaction on their own rows, nothing else is reloaded.
+ * <p>
+ * Identifiers of packs bundled in the apk are refused, the app and WhatsApp expect every identifier
+ * to name one pack.
+ */
+class StickerPackDatabase extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "sticker_packs.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String PACK_DIRECTORY = "sticker_packs";
+    private static final String INCOMING_SUFFIX = "..incoming";
+    private static final String RETIRED_SUFFIX = "..retired";
+
+    private static final String TABLE_PACKS = "packs";
+    private static final String TABLE_STICKERS = "stickers";
+
+    private static final String COLUMN_IDENTIFIER = "identifier";
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_PUBLISHER = "publisher";
+    private static final String COLUMN_TRAY_IMAGE_FILE = "tray_image_file";
+    private static final String COLUMN_PUBLISHER_EMAIL = "publisher_email";
+    private static final String COLUMN_PUBLISHER_WEBSITE = "publisher_website";
+    private static final String COLUMN_PRIVACY_POLICY_WEBSITE = "privacy_policy_website";
+    private static final String COLUMN_LICENSE_AGREEMENT_WEBSITE = "license_agreement_website";
+    private static final String COLUMN_IMAGE_DATA_VERSION = "image_data_version";
+    private static final String COLUMN_AVOID_CACHE = "avoid_cache";
+    private static final String COLUMN_ANIMATED_STICKER_PACK = "animated_sticker_pack";
+    private static final String COLUMN_ANDROID_PLAY_STORE_LINK = "android_play_store_link";
+    private static final String COLUMN_IOS_APP_STORE_LINK = "ios_app_store_link";
+
+    private static final String COLUMN_PACK_IDENTIFIER = "pack_identifier";
+    private static final String COLUMN_IMAGE_FILE = "image_file";
+    private static final String COLUMN_EMOJIS = "emojis";
+    private static final String COLUMN_ACCESSIBILITY_TEXT = "accessibility_text";
+    private static final String COLUMN_POSITION = "position";
+
+    private static final String[] PACK_COLUMNS = {
+            COLUMN_IDENTIFIER,
+            COLUMN_NAME,
+            COLUMN_PUBLISHER,
+            COLUMN_TRAY_IMAGE_FILE,
+            COLUMN_PUBLISHER_EMAIL,
+            COLUMN_PUBLISHER_WEBSITE,
+            COLUMN_PRIVACY_POLICY_WEBSITE,
+            COLUMN_LICENSE_AGREEMENT_WEBSITE,
+            COLUMN_IMAGE_DATA_VERSION,
+            COLUMN_AVOID_CACHE,
+            COLUMN_ANIMATED_STICKER_PACK,
+            COLUMN_ANDROID_PLAY_STORE_LINK,
+            COLUMN_IOS_APP_STORE_LINK,
+    };
+    private static final String[] STICKER_COLUMNS = {COLUMN_IMAGE_FILE, COLUMN_EMOJIS, COLUMN_ACCESSIBILITY_TEXT};
+
+    private static StickerPackDatabase instance;
+
+    @NonNull
+    private final Context context;
+    private final AtomicLong version = new AtomicLong();
+
+    private StickerPackDatabase(@NonNull Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.context = context;
+    }
+
+    @NonNull
+    static synchronized StickerPackDatabase getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new StickerPackDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_PACKS + " ("
+                + COLUMN_IDENTIFIER + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_NAME + " TEXT NOT NULL, "
+                + COLUMN_PUBLISHER + " TEXT NOT NULL, "
+                + COLUMN_TRAY_IMAGE_FILE + " TEXT NOT NULL, "
+                + COLUMN_PUBLISHER_EMAIL + " TEXT, "
+                + COLUMN_PUBLISHER_WEBSITE + " TEXT, "
+                + COLUMN_PRIVACY_POLICY_WEBSITE + " TEXT, "
+                + COLUMN_LICENSE_AGREEMENT_WEBSITE + " TEXT, "
+                + COLUMN_IMAGE_DATA_VERSION + " TEXT NOT NULL, "
+                + COLUMN_AVOID_CACHE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_ANIMATED_STICKER_PACK + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_ANDROID_PLAY_STORE_LINK + " TEXT, "
+                + COLUMN_IOS_APP_STORE_LINK + " TEXT)");
+        //the primary key is the (identifier, file name) index used to validate asset requests.
+        db.execSQL("CREATE TABLE " + TABLE_STICKERS + " ("
+                + COLUMN_PACK_IDENTIFIER + " TEXT NOT NULL REFERENCES " + TABLE_PACKS + "(" + COLUMN_IDENTIFIER + ") ON DELETE CASCADE, "
+                + COLUMN_IMAGE_FILE + " TEXT NOT NULL, "
+                + COLUMN_EMOJIS + " TEXT, "
+                + COLUMN_ACCESSIBILITY_TEXT + " TEXT, "
+                + COLUMN_POSITION + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_PACK_IDENTIFIER + ", " + COLUMN_IMAGE_FILE + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_STICKERS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PACKS);
+        onCreate(db);
+    }
+
+    /**
+     * Directory holding the tray image and sticker files of a pack added at runtime.
+     */
+    @NonNull
+    File getPackDirectory(@NonNull String identifier) {
+        checkPathSegment(identifier);
+        return new File(new File(context.getFilesDir(), PACK_DIRECTORY), identifier);
+    }
+
+    /**
+     * Moves the pack's files from directory to {@link #getPackDirectory} and adds the pack, replacing the
+     * pack with the same identifier and its files if there is one.
+     */
+    void addStickerPack(@NonNull StickerPack stickerPack, @NonNull File directory) throws IOException, IllegalStateException {
+        addStickerPacks(Collections.singletonList(stickerPack), Collections.singletonList(directory));
+    }
+
+    /**
+     * Moves the files of each pack from the directory at the same position to {@link #getPackDirectory}
+     * and adds the packs in one transaction, replacing the packs with the same identifiers and their
+     * files. Either every pack is added or none is and the stored packs keep their files.
+     * <p>
+     * The files are first moved next to the pack's directory, then the two directories are swapped by
+     * renames, so a pack's directory is only missing between those two renames and never holds the
+     * files of two versions. The previous files are deleted once the packs were added.
+     */
+    synchronized void addStickerPacks(@NonNull List<StickerPack> stickerPacks, @NonNull List<File> directories) throws IOException, IllegalStateException {
+        if (stickerPacks.size() != directories.size()) {
+            throw new IllegalArgumentException("one directory is needed per sticker pack");
+        }
+        for (StickerPack stickerPack : stickerPacks) {
+            checkNotBundled(stickerPack.identifier);
+        }
+        final List<File> incomingDirectories = new ArrayList<>(stickerPacks.size());
+        final List<File> retiredDirectories = new ArrayList<>(stickerPacks.size());
+        //how many packs may have had their directories swapped, they are swapped back if the packs are not added.
+        int swapped = 0;
+        boolean added = false;
+        try {
+            for (int i = 0; i < stickerPacks.size(); i++) {
+                final File packDirectory = getPackDirectory(stickerPacks.get(i).identifier);
+                final File incomingDirectory = getSiblingDirectory(packDirectory, INCOMING_SUFFIX);
+                deleteRecursively(incomingDirectory);
+                incomingDirectories.add(incomingDirectory);
+                retiredDirectories.add(getSiblingDirectory(packDirectory, RETIRED_SUFFIX));
+                final File parent = packDirectory.getParentFile();
+                if (parent == null || (!parent.isDirectory() && !parent.mkdirs()) || !directories.get(i).renameTo(incomingDirectory)) {
+                    throw new IOException("cannot move the files of sticker pack " + stickerPacks.get(i).identifier + " to " + incomingDirectory);
+                }
+            }
+            for (int i = 0; i < stickerPacks.size(); i++) {
+                final File packDirectory = getPackDirectory(stickerPacks.get(i).identifier);
+                final File retiredDirectory = retiredDirectories.get(i);
+                deleteRecursively(retiredDirectory);
+                swapped = i + 1;
+                if (packDirectory.exists() && !packDirectory.renameTo(retiredDirectory)) {
+                    throw new IOException("cannot move the files of sticker pack " + stickerPacks.get(i).identifier + " out of " + packDirectory);
+                }
+                if (!incomingDirectories.get(i).renameTo(packDirectory)) {
+                    throw new IOException("cannot move the files of sticker pack " + stickerPacks.get(i).identifier + " to " + packDirectory);
+                }
+            }
+            final SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (StickerPack stickerPack : stickerPacks) {
+                    insertStickerPack(db, stickerPack);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            added = true;
+        } finally {
+            if (!added) {
+                for (int i = swapped - 1; i >= 0; i--) {
+                    final File packDirectory = getPackDirectory(stickerPacks.get(i).identifier);
+                    //the new files are in the pack's directory once they are not next to it anymore.
+                    if (!incomingDirectories.get(i).exists()) {
+                        deleteRecursively(packDirectory);
+                    }
+                    if (retiredDirectories.get(i).exists()) {
+                        //noinspection ResultOfMethodCallIgnored
+                        retiredDirectories.get(i).renameTo(packDirectory);
+                    }
+                }
+            }
+            for (File incomingDirectory : incomingDirectories) {
+                deleteRecursively(incomingDirectory);
+            }
+            //when a swap could not be undone the previous files are left next to the pack's directory.
+            if (added) {
+                for (File retiredDirectory : retiredDirectories) {
+                    deleteRecursively(retiredDirectory);
+                }
+            }
+        }
+        for (StickerPack stickerPack : stickerPacks) {
+            notifyCatalogChanged(stickerPack.identifier);
+        }
+    }
+
+    //called in a transaction, replaces the pack with the same identifier.
+    private static void insertStickerPack(@NonNull SQLiteDatabase db, @NonNull StickerPack stickerPack) throws IllegalStateException {
+        checkPathSegment(stickerPack.identifier);
+        db.delete(TABLE_PACKS, COLUMN_IDENTIFIER + " = ?", new String[]{stickerPack.identifier});
+        final ContentValues pack = new ContentValues();
+        pack.put(COLUMN_IDENTIFIER, stickerPack.identifier);
+        pack.put(COLUMN_NAME, stickerPack.name);
+        pack.put(COLUMN_PUBLISHER, stickerPack.publisher);
+        pack.put(COLUMN_TRAY_IMAGE_FILE, stickerPack.trayImageFile);
+        pack.put(COLUMN_PUBLISHER_EMAIL, stickerPack.publisherEmail);
+        pack.put(COLUMN_PUBLISHER_WEBSITE, stickerPack.publisherWebsite);
+        pack.put(COLUMN_PRIVACY_POLICY_WEBSITE, stickerPack.privacyPolicyWebsite);
+        pack.put(COLUMN_LICENSE_AGREEMENT_WEBSITE, stickerPack.licenseAgreementWebsite);
+        pack.put(COLUMN_IMAGE_DATA_VERSION, stickerPack.imageDataVersion);
+        pack.put(COLUMN_AVOID_CACHE, stickerPack.avoidCache ? 1 : 0);
+        pack.put(COLUMN_ANIMATED_STICKER_PACK, stickerPack.animatedStickerPack ? 1 : 0);
+        pack.put(COLUMN_ANDROID_PLAY_STORE_LINK, stickerPack.androidPlayStoreLink);
+        pack.put(COLUMN_IOS_APP_STORE_LINK, stickerPack.iosAppStoreLink);
+        db.insertOrThrow(TABLE_PACKS, null, pack);
+
+        final ContentValues sticker = new ContentValues();
+        final List<Sticker> stickers = stickerPack.getStickers();
+        for (int i = 0; i < stickers.size(); i++) {
+            checkPathSegment(stickers.get(i).imageFileName);
+            sticker.clear();
+            sticker.put(COLUMN_PACK_IDENTIFIER, stickerPack.identifier);
+            sticker.put(COLUMN_IMAGE_FILE, stickers.get(i).imageFileName);
+            sticker.put(COLUMN_EMOJIS, TextUtils.join(",", stickers.get(i).emojis));
+            sticker.put(COLUMN_ACCESSIBILITY_TEXT, stickers.get(i).accessibilityText);
+            sticker.put(COLUMN_POSITION, i);
+            db.insertOrThrow(TABLE_STICKERS, null, sticker);
+        }
+    }
+
+    //identifiers cannot contain "..", so no pack directory has the name of these.
+    @NonNull
+    private static File getSiblingDirectory(@NonNull File packDirectory, @NonNull String suffix) {
+        return new File(packDirectory.getParentFile(), packDirectory.getName() + suffix);
+    }
+
+    /**
+     * Throws if a pack bundled in the apk has the identifier, a stored pack with it would be a second
+     * pack with the same identifier instead of replacing it.
+     */
+    void checkNotBundled(@NonNull String identifier) throws IllegalStateException {
+        if (StickerCatalogRepository.getInstance(context).getStickerCatalog().getStickerPack(identifier) != null) {
+            throw new IllegalStateException("a sticker pack bundled in the app already has identifier: " + identifier);
+        }
+    }
+
+    /**
+     * Removes a pack, its stickers and its files.
+     *
+     * @return whether there was a pack with that identifier.
+     */
+    synchronized boolean removeStickerPack(@NonNull String identifier) {
+        //the stickers are removed by the cascading foreign key.
+        final boolean removed = getWritableDatabase().delete(TABLE_PACKS, COLUMN_IDENTIFIER + " = ?", new String[]{identifier}) > 0;
+        deleteRecursively(getPackDirectory(identifier));
+        if (removed) {
+            notifyCatalogChanged(identifier);
+        }
+        return removed;
+    }
+
+    @NonNull
+    List<StickerPack> getStickerPacks() {
+        final List<StickerPack> stickerPacks = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_PACKS, PACK_COLUMNS, null, null, null, null, "rowid")) {
+            while (cursor.moveToNext()) {
+                stickerPacks.add(readStickerPack(cursor));
+            }
+        }
+        return stickerPacks;
+    }
+
+    @Nullable
+    StickerPack getStickerPack(@NonNull String identifier) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_PACKS, PACK_COLUMNS, COLUMN_IDENTIFIER + " = ?", new String[]{identifier}, null, null, null)) {
+            return cursor.moveToFirst() ? readStickerPack(cursor) : null;
+        }
+    }
+
+    @NonNull
+    List<Sticker> getStickers(@NonNull String identifier) {
+        final StickerStringPool stringPool = StickerStringPool.getInstance();
+        final List<Sticker> stickers = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_STICKERS, STICKER_COLUMNS, COLUMN_PACK_IDENTIFIER + " = ?", new String[]{identifier}, null, null, COLUMN_POSITION)) {
+            while (cursor.moveToNext()) {
+                stickers.add(new Sticker(stringPool.intern(cursor.getString(0)), stringPool.internEmojis(cursor.getString(1)), cursor.getString(2)));
+            }
+        }
+        return stickers;
+    }
+
+    /**
+     * Whether the file is the tray image or one of the stickers of a pack in the database.
+     */
+    boolean containsAsset(@NonNull String identifier, @NonNull String fileName) {
+        final SQLiteDatabase db = getReadableDatabase();
+        return DatabaseUtils.longForQuery(db, "SELECT EXISTS(SELECT 1 FROM " + TABLE_STICKERS + " WHERE " + COLUMN_PACK_IDENTIFIER + " = ? AND " + COLUMN_IMAGE_FILE + " = ?)", new String[]{identifier, fileName}) != 0
+                || isTrayImage(identifier, fileName);
+    }
+
+    boolean isTrayImage(@NonNull String identifier, @NonNull String fileName) {
+        return DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT EXISTS(SELECT 1 FROM " + TABLE_PACKS + " WHERE " + COLUMN_IDENTIFIER + " = ? AND " + COLUMN_TRAY_IMAGE_FILE + " = ?)", new String[]{identifier, fileName}) != 0;
+    }
+
+    @NonNull
+    private StickerPack readStickerPack(@NonNull Cursor cursor) {
+        final StickerPack stickerPack = ContentFileParser.newStickerPack(
+                cursor.getString(0),
+                cursor.getString(1),
+                cursor.getString(2),
+                cursor.getString(3),
+                cursor.getString(4),
+                cursor.getString(5),
+                cursor.getString(6),
+                cursor.getString(7),
+                cursor.getString(8),
+                cursor.getInt(9) != 0,
+                cursor.getInt(10) != 0);
+        final StickerStringPool stringPool = StickerStringPool.getInstance();
+        stickerPack.setAndroidPlayStoreLink(stringPool.intern(cursor.getString(11)));
+        stickerPack.setIosAppStoreLink(stringPool.intern(cursor.getString(12)));
+        final String identifier = stickerPack.identifier;
+        stickerPack.setStickerSource(() -> getStickers(identifier));
+        return stickerPack;
+    }
+
+    /**
+     * Incremented every time a pack is added or removed, so responses built from the stored packs
+     * can tell they are stale.
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    private void notifyCatalogChanged(@NonNull String identifier) {
+        version.incrementAndGet();
+        StickerContentProvider.notifyChange(context.getContentResolver(), StickerCatalogDiff.forStickerPack(identifier));
+    }
+
+    static void checkPathSegment(@Nullable String value) throws IllegalStateException {
+        if (TextUtils.isEmpty(value) || value.contains("..") || value.contains("/")) {
+            throw new IllegalStateException("identifier and file names should not be empty or contain .. or / to prevent directory traversal: " + value);
+        }
+    }
+
+    static void deleteRecursively(@NonNull File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
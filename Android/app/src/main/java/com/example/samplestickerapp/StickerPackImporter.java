@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Adds the sticker packs of a zip archive to the {@link StickerPackDatabase}, so packs can be installed
+ * without a new apk. The archive is laid out like the assets folder: contents.json, and a folder per
+ * pack named by its identifier holding its tray image and stickers.
+ * <p>
+ * The archive is read once, entry by entry. Each file is read into the same buffer, refused if it is
+ * larger than any sticker can be, written to a staging folder and has its dimensions and frames read,
+ * so memory use does not grow with the size of the files or of the archive. Once every entry was read
+ * the packs are validated against what was read of their files, moved into place and added in one
+ * transaction. Nothing is added if anything in the archive is not valid, if a pack has the identifier of
+ * a pack bundled in the app, or if it has more files, packs or bytes than an import is allowed.
+ */
+class StickerPackImporter {
+    private static final String TAG = "StickerPackImporter";
+    private static final String CONTENT_FILE_NAME = "contents.json";
+    private static final String IMPORT_DIRECTORY = "sticker_pack_imports";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // no tray image or sticker can be larger, see StickerPackValidator.
+    private static final int MAX_FILE_BYTES = (int) StickerPackValidator.getMaxStickerFileBytes(true);
+    // bounds what an archive can make the import write to the staging folder and keep in memory.
+    private static final int MAX_STICKER_PACKS = 100;
+    // contents.json, and the tray image and stickers of every pack.
+    private static final int MAX_ENTRIES = 1 + MAX_STICKER_PACKS * (StickerPackValidator.STICKER_SIZE_MAX + 1);
+    private static final long MAX_TOTAL_BYTES = 256L * 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    interface ProgressListener {
+        /**
+         * Called on the importing thread while the archive is read, and once more when it was read.
+         *
+         * @param totalBytes     size of the archive, -1 if it is not known.
+         * @param bytesPerSecond how fast the archive has been read so far.
+         */
+        void onProgress(long bytesRead, long totalBytes, int filesRead, long bytesPerSecond);
+    }
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final StickerPackDatabase stickerPackDatabase;
+
+    StickerPackImporter(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        this.stickerPackDatabase = StickerPackDatabase.getInstance(context);
+    }
+
+    /**
+     * Blocks until the archive was read and its packs added, so it has to be called off the main thread.
+     *
+     * @return the packs added, they replace the stored packs with the same identifier.
+     */
+    @NonNull
+    List<StickerPack> importArchive(@NonNull Uri archive, @Nullable ProgressListener listener) throws IOException, IllegalStateException {
+        final AssetFileDescriptor archiveFileDescriptor = context.getContentResolver().openAssetFileDescriptor(archive, "r");
+        if (archiveFileDescriptor == null) {
+            throw new FileNotFoundException("cannot open sticker pack archive: " + archive);
+        }
+        final long totalBytes = archiveFileDescriptor.getLength();
+        final InputStream archiveStream;
+        try {
+            archiveStream = archiveFileDescriptor.createInputStream();
+        } catch (IOException e) {
+            archiveFileDescriptor.close();
+            throw e;
+        }
+        final File stagingDirectory = new File(new File(context.getFilesDir(), IMPORT_DIRECTORY), UUID.randomUUID().toString());
+        //closing the stream closes the file descriptor.
+        try (CountingInputStream countingStream = new CountingInputStream(archiveStream);
+             ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(countingStream, READ_BUFFER_SIZE))) {
+            final Progress progress = new Progress(countingStream, totalBytes, listener);
+            final List<StickerPack> stickerPacks = readArchive(zipStream, stagingDirectory, progress, stickerPackDatabase);
+            final List<File> directories = new ArrayList<>(stickerPacks.size());
+            for (StickerPack stickerPack : stickerPacks) {
+                directories.add(new File(stagingDirectory, stickerPack.identifier));
+            }
+            stickerPackDatabase.addStickerPacks(stickerPacks, directories);
+            progress.report();
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "imported " + stickerPacks.size() + " sticker packs, " + progress.filesRead + " files, " + countingStream.count + " bytes in "
+                        + TimeUnit.NANOSECONDS.toMillis(progress.getElapsedNanos()) + " ms, " + progress.getBytesPerSecond() / 1024 + " KB/s");
+            }
+            return stickerPacks;
+        } finally {
+            StickerPackDatabase.deleteRecursively(stagingDirectory);
+        }
+    }
+
+    @NonNull
+    private static List<StickerPack> readArchive(@NonNull ZipInputStream zipStream, @NonNull File stagingDirectory, @NonNull Progress progress,
+                                                 @NonNull StickerPackDatabase stickerPackDatabase) throws IOException, IllegalStateException {
+        List<StickerPack> stickerPacks = null;
+        // "identifier/file name" -> what was read of the file, webp files apart since only they can be stickers.
+        final Map<String, StickerPackValidator.ImageInfo> webpFiles = new HashMap<>();
+        final Map<String, StickerPackValidator.ImageInfo> otherFiles = new HashMap<>();
+        final byte[] buffer = new byte[MAX_FILE_BYTES];
+        final ByteBuffer decodeBuffer = ByteBuffer.allocateDirect(MAX_FILE_BYTES);
+        //the entries are read through it, so what they hold altogether is bounded whatever the archive claims.
+        final BoundedInputStream entryStream = new BoundedInputStream(zipStream, MAX_TOTAL_BYTES);
+        int entryCount = 0;
+        ZipEntry entry;
+        while ((entry = zipStream.getNextEntry()) != null) {
+            final String name = entry.getName();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (++entryCount > MAX_ENTRIES) {
+                throw new IllegalStateException("sticker pack archive has more than " + MAX_ENTRIES + " files");
+            }
+            if (CONTENT_FILE_NAME.equals(name)) {
+                if (stickerPacks != null) {
+                    throw new IllegalStateException("sticker pack archive has more than one " + CONTENT_FILE_NAME);
+                }
+                stickerPacks = ContentFileParser.parseStickerPacks(new NonClosingInputStream(entryStream));
+                if (stickerPacks.size() > MAX_STICKER_PACKS) {
+                    throw new IllegalStateException("sticker pack archive has more than " + MAX_STICKER_PACKS + " sticker packs");
+                }
+                final Set<String> identifiers = new HashSet<>();
+                for (StickerPack stickerPack : stickerPacks) {
+                    StickerPackValidator.verifyStickerPackMetadata(stickerPack);
+                    if (!identifiers.add(stickerPack.identifier)) {
+                        throw new IllegalStateException("sticker pack archive has more than one pack with identifier: " + stickerPack.identifier);
+                    }
+                    stickerPackDatabase.checkNotBundled(stickerPack.identifier);
+                }
+            } else {
+                final int separator = name.indexOf('/');
+                if (separator < 0 || name.indexOf('/', separator + 1) >= 0) {
+                    throw new IllegalStateException("files in a sticker pack archive should be in the folder of their pack: " + name);
+                }
+                final String identifier = name.substring(0, separator);
+                final String fileName = name.substring(separator + 1);
+                StickerPackDatabase.checkPathSegment(identifier);
+                StickerPackDatabase.checkPathSegment(fileName);
+                //contents.json can come after the files, so their folder is checked before they are staged.
+                stickerPackDatabase.checkNotBundled(identifier);
+                final int length = readEntry(entryStream, buffer, name);
+                writeFile(new File(stagingDirectory, identifier), fileName, buffer, length);
+                if (isWebp(buffer, length)) {
+                    webpFiles.put(name, StickerPackValidator.ImageInfo.readSticker(buffer, length, decodeBuffer, identifier, fileName));
+                } else {
+                    otherFiles.put(name, StickerPackValidator.ImageInfo.readTrayImage(buffer, length));
+                }
+            }
+            progress.onFileRead();
+        }
+        if (stickerPacks == null) {
+            throw new IllegalStateException("sticker pack archive has no " + CONTENT_FILE_NAME);
+        }
+        for (StickerPack stickerPack : stickerPacks) {
+            verifyFiles(stickerPack, webpFiles, otherFiles);
+        }
+        return stickerPacks;
+    }
+
+    private static void verifyFiles(@NonNull StickerPack stickerPack, @NonNull Map<String, StickerPackValidator.ImageInfo> webpFiles,
+                                    @NonNull Map<String, StickerPackValidator.ImageInfo> otherFiles) throws IllegalStateException {
+        final String trayImagePath = stickerPack.identifier + "/" + stickerPack.trayImageFile;
+        StickerPackValidator.ImageInfo trayImage = webpFiles.get(trayImagePath);
+        if (trayImage == null) {
+            trayImage = otherFiles.get(trayImagePath);
+        }
+        if (trayImage == null) {
+            throw new IllegalStateException("tray image is missing from the sticker pack archive: " + trayImagePath);
+        }
+        StickerPackValidator.verifyTrayImage(stickerPack, trayImage);
+        final List<Sticker> stickers = stickerPack.getStickers();
+        StickerPackValidator.verifyStickerCount(stickerPack, stickers);
+        for (Sticker sticker : stickers) {
+            final String stickerPath = stickerPack.identifier + "/" + sticker.imageFileName;
+            final StickerPackValidator.ImageInfo info = webpFiles.get(stickerPath);
+            if (info == null) {
+                throw new IllegalStateException(otherFiles.containsKey(stickerPath) ? "sticker is not a webp image: " + stickerPath : "sticker is missing from the sticker pack archive: " + stickerPath);
+            }
+            StickerPackValidator.verifySticker(stickerPack.identifier, sticker, stickerPack.animatedStickerPack, info);
+            sticker.setSize(info.size);
+        }
+    }
+
+    /**
+     * @return the length of the entry, which is refused if it does not fit in the buffer.
+     */
+    private static int readEntry(@NonNull InputStream entryStream, @NonNull byte[] buffer, @NonNull String name) throws IOException, IllegalStateException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = entryStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        if (length == buffer.length && entryStream.read() != -1) {
+            throw new IllegalStateException("file in sticker pack archive is larger than " + MAX_FILE_BYTES / 1024 + " KB: " + name);
+        }
+        return length;
+    }
+
+    private static void writeFile(@NonNull File directory, @NonNull String fileName, @NonNull byte[] buffer, int length) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(new File(directory, fileName))) {
+            outputStream.write(buffer, 0, length);
+        }
+    }
+
+    //"RIFF", the length, then "WEBP".
+    private static boolean isWebp(@NonNull byte[] buffer, int length) {
+        return length >= 12 && buffer[0] == 'R' && buffer[1] == 'I' && buffer[2] == 'F' && buffer[3] == 'F'
+                && buffer[8] == 'W' && buffer[9] == 'E' && buffer[10] == 'B' && buffer[11] == 'P';
+    }
+
+    private static class Progress {
+        @NonNull
+        private final CountingInputStream countingStream;
+        private final long totalBytes;
+        @Nullable
+        private final ProgressListener listener;
+        private final long start = SystemClock.elapsedRealtimeNanos();
+        private long lastReport = start;
+        int filesRead;
+
+        Progress(@NonNull CountingInputStream countingStream, long totalBytes, @Nullable ProgressListener listener) {
+            this.countingStream = countingStream;
+            this.totalBytes = totalBytes;
+            this.listener = listener;
+        }
+
+        void onFileRead() {
+            filesRead++;
+            if (SystemClock.elapsedRealtimeNanos() - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                report();
+            }
+        }
+
+        void report() {
+            lastReport = SystemClock.elapsedRealtimeNanos();
+            if (listener != null) {
+                listener.onProgress(countingStream.count, totalBytes, filesRead, getBytesPerSecond());
+            }
+        }
+
+        long getElapsedNanos() {
+            return SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        long getBytesPerSecond() {
+            final long elapsedNanos = getElapsedNanos();
+            return elapsedNanos > 0 ? countingStream.count * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(@NonNull InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = super.read();
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    //refuses to read more than maxBytes in total, across every entry of the archive.
+    private static class BoundedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
+
+        BoundedInputStream(@NonNull InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = super.read();
+            if (read != -1) {
+                onRead(1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                onRead(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            onRead(skipped);
+            return skipped;
+        }
+
+        private void onRead(long read) throws IllegalStateException {
+            count += read;
+            if (count > maxBytes) {
+                throw new IllegalStateException("files in sticker pack archive are larger than " + maxBytes / (1024 * 1024) + " MB altogether");
+            }
+        }
+    }
+
+    //the content file parser closes its stream, which would close the whole archive.
+    private static class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(@NonNull InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -10,9 +10,10 @@ package com.example.samplestickerapp;
 
 import android.content.ContentResolver;
 import android.content.Context;
-import android.database.Cursor;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
-import android.text.TextUtils;
+import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 
@@ -20,40 +21,23 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-
-import static com.example.samplestickerapp.StickerContentProvider.ANDROID_APP_DOWNLOAD_LINK_IN_QUERY;
-import static com.example.samplestickerapp.StickerContentProvider.ANIMATED_STICKER_PACK;
-import static com.example.samplestickerapp.StickerContentProvider.AVOID_CACHE;
-import static com.example.samplestickerapp.StickerContentProvider.IMAGE_DATA_VERSION;
-import static com.example.samplestickerapp.StickerContentProvider.IOS_APP_DOWNLOAD_LINK_IN_QUERY;
-import static com.example.samplestickerapp.StickerContentProvider.LICENSE_AGREENMENT_WEBSITE;
-import static com.example.samplestickerapp.StickerContentProvider.PRIVACY_POLICY_WEBSITE;
-import static com.example.samplestickerapp.StickerContentProvider.PUBLISHER_EMAIL;
-import static com.example.samplestickerapp.StickerContentProvider.PUBLISHER_WEBSITE;
-import static com.example.samplestickerapp.StickerContentProvider.STICKER_FILE_ACCESSIBILITY_TEXT_IN_QUERY;
-import static com.example.samplestickerapp.StickerContentProvider.STICKER_FILE_EMOJI_IN_QUERY;
-import static com.example.samplestickerapp.StickerContentProvider.STICKER_FILE_NAME_IN_QUERY;
-import static com.example.samplestickerapp.StickerContentProvider.STICKER_PACK_ICON_IN_QUERY;
-import static com.example.samplestickerapp.StickerContentProvider.STICKER_PACK_IDENTIFIER_IN_QUERY;
-import static com.example.samplestickerapp.StickerContentProvider.STICKER_PACK_NAME_IN_QUERY;
-import static com.example.samplestickerapp.StickerContentProvider.STICKER_PACK_PUBLISHER_IN_QUERY;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 class StickerPackLoader {
 
     /**
-     * Get the list of sticker packs for the sticker content provider
+     * Get the list of sticker packs the sticker content provider serves. They are read from the
+     * {@link StickerCatalogRepository} the provider serves them from, not queried from the provider.
      */
     @NonNull
     static ArrayList<StickerPack> fetchStickerPacks(Context context) throws IllegalStateException {
-        final Cursor cursor = context.getContentResolver().query(StickerContentProvider.AUTHORITY_URI, null, null, null, null);
-        if (cursor == null) {
-            throw new IllegalStateException("could not fetch from content provider, " + BuildConfig.CONTENT_PROVIDER_AUTHORITY);
-        }
+        final ArrayList<StickerPack> stickerPackList = StickerCatalogRepository.getInstance(context).copyStickerPacks();
         HashSet<String> identifierSet = new HashSet<>();
-        final ArrayList<StickerPack> stickerPackList = fetchFromContentProvider(cursor);
         for (StickerPack stickerPack : stickerPackList) {
             if (identifierSet.contains(stickerPack.identifier)) {
                 throw new IllegalStateException("sticker pack identifiers should be unique, there are more than one pack with identifier:" + stickerPack.identifier);
@@ -64,83 +48,109 @@ class StickerPackLoader {
         if (stickerPackList.isEmpty()) {
             throw new IllegalStateException("There should be at least one sticker pack in the app");
         }
-        for (StickerPack stickerPack : stickerPackList) {
-            final List<Sticker> stickers = getStickersForPack(context, stickerPack);
-            stickerPack.setStickers(stickers);
-            StickerPackValidator.verifyStickerPackValidity(context, stickerPack);
+        //the stored packs were validated when they were imported or created.
+        StickerCatalogRepository.getInstance(context).verifyBundledStickerPacks();
+        final long start = SystemClock.elapsedRealtime();
+        final int parallelism = loadStickerPacks(context, stickerPackList);
+        if (BuildConfig.DEBUG) {
+            Log.d("StickerPackLoader", "loaded " + stickerPackList.size() + " packs in " + (SystemClock.elapsedRealtime() - start) + " ms on " + parallelism + " threads");
+            final StickerStringPool stringPool = StickerStringPool.getInstance();
+            Log.d("StickerPackLoader", "string pool holds " + stringPool.getSize() + " values, saved ~" + stringPool.getSavedBytes() + " bytes over " + stringPool.getHitCount() + " duplicates");
         }
         return stickerPackList;
     }
 
-    @NonNull
-    private static List<Sticker> getStickersForPack(Context context, StickerPack stickerPack) {
-        final List<Sticker> stickers = fetchFromContentProviderForStickers(stickerPack.identifier, context.getContentResolver());
-        for (Sticker sticker : stickers) {
-            final byte[] bytes;
-            try {
-                bytes = fetchStickerAsset(stickerPack.identifier, sticker.imageFileName, context.getContentResolver());
-                if (bytes.length <= 0) {
-                    throw new IllegalStateException("Asset file is empty, pack: " + stickerPack.name + ", sticker: " + sticker.imageFileName);
-                }
-                sticker.setSize(bytes.length);
-            } catch (IOException | IllegalArgumentException e) {
-                throw new IllegalStateException("Asset file doesn't exist. pack: " + stickerPack.name + ", sticker: " + sticker.imageFileName, e);
+    /**
+     * Loads the stickers of the packs and checks their metadata, on up to sticker_pack_loader_parallelism
+     * threads since the packs do not depend on each other. The packs stay in catalog order, and when
+     * several fail the error is the one of the first of them in that order, as if they were loaded one
+     * after the other.
+     *
+     * @return the number of threads the packs were loaded on.
+     */
+    private static int loadStickerPacks(@NonNull Context context, @NonNull List<StickerPack> stickerPacks) throws IllegalStateException {
+        return loadStickerPacks(context, stickerPacks, context.getResources().getInteger(R.integer.sticker_pack_loader_parallelism));
+    }
+
+    //with the number of threads given instead of read from the resources, for the loader benchmark.
+    static int loadStickerPacks(@NonNull Context context, @NonNull List<StickerPack> stickerPacks, int maxParallelism) throws IllegalStateException {
+        final int parallelism = Math.max(1, Math.min(maxParallelism, stickerPacks.size()));
+        if (parallelism == 1) {
+            for (StickerPack stickerPack : stickerPacks) {
+                loadStickerPack(context, stickerPack);
             }
+            return parallelism;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            final List<Future<?>> loads = new ArrayList<>(stickerPacks.size());
+            for (StickerPack stickerPack : stickerPacks) {
+                loads.add(executor.submit(() -> loadStickerPack(context, stickerPack)));
+            }
+            //waited for in order, so a pack failing only wins once every pack before it was loaded.
+            for (Future<?> load : loads) {
+                load.get();
+            }
+            return parallelism;
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("could not load sticker packs", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while loading sticker packs", e);
+        } finally {
+            //the packs after a failing one are not needed anymore.
+            executor.shutdownNow();
         }
-        return stickers;
     }
 
+    private static void loadStickerPack(@NonNull Context context, @NonNull StickerPack stickerPack) throws IllegalStateException {
+        readUnknownSizes(context, stickerPack);
+        StickerPackValidator.verifyStickerPackMetadata(stickerPack);
+    }
 
-    @NonNull
-    private static ArrayList<StickerPack> fetchFromContentProvider(Cursor cursor) {
-        ArrayList<StickerPack> stickerPackList = new ArrayList<>();
-        cursor.moveToFirst();
-        do {
-            final String identifier = cursor.getString(cursor.getColumnIndexOrThrow(STICKER_PACK_IDENTIFIER_IN_QUERY));
-            final String name = cursor.getString(cursor.getColumnIndexOrThrow(STICKER_PACK_NAME_IN_QUERY));
-            final String publisher = cursor.getString(cursor.getColumnIndexOrThrow(STICKER_PACK_PUBLISHER_IN_QUERY));
-            final String trayImage = cursor.getString(cursor.getColumnIndexOrThrow(STICKER_PACK_ICON_IN_QUERY));
-            final String androidPlayStoreLink = cursor.getString(cursor.getColumnIndexOrThrow(ANDROID_APP_DOWNLOAD_LINK_IN_QUERY));
-            final String iosAppLink = cursor.getString(cursor.getColumnIndexOrThrow(IOS_APP_DOWNLOAD_LINK_IN_QUERY));
-            final String publisherEmail = cursor.getString(cursor.getColumnIndexOrThrow(PUBLISHER_EMAIL));
-            final String publisherWebsite = cursor.getString(cursor.getColumnIndexOrThrow(PUBLISHER_WEBSITE));
-            final String privacyPolicyWebsite = cursor.getString(cursor.getColumnIndexOrThrow(PRIVACY_POLICY_WEBSITE));
-            final String licenseAgreementWebsite = cursor.getString(cursor.getColumnIndexOrThrow(LICENSE_AGREENMENT_WEBSITE));
-            final String imageDataVersion = cursor.getString(cursor.getColumnIndexOrThrow(IMAGE_DATA_VERSION));
-            final boolean avoidCache = cursor.getShort(cursor.getColumnIndexOrThrow(AVOID_CACHE)) > 0;
-            final boolean animatedStickerPack = cursor.getShort(cursor.getColumnIndexOrThrow(ANIMATED_STICKER_PACK)) > 0;
-            final StickerPack stickerPack = new StickerPack(identifier, name, publisher, trayImage, publisherEmail, publisherWebsite, privacyPolicyWebsite, licenseAgreementWebsite, imageDataVersion, avoidCache, animatedStickerPack);
-            stickerPack.setAndroidPlayStoreLink(androidPlayStoreLink);
-            stickerPack.setIosAppStoreLink(iosAppLink);
-            stickerPackList.add(stickerPack);
-        } while (cursor.moveToNext());
-        return stickerPackList;
+    //the sizes that are not known without reading the file, see StickerCatalogRepository#getAssetSize.
+    private static void readUnknownSizes(@NonNull Context context, @NonNull StickerPack stickerPack) {
+        final List<Sticker> stickers = stickerPack.getStickers();
+        boolean changed = false;
+        for (Sticker sticker : stickers) {
+            if (sticker.size == Sticker.UNKNOWN_SIZE) {
+                sticker.setSize(readStickerSize(context, stickerPack, sticker));
+                changed = true;
+            }
+        }
+        if (changed) {
+            //recomputes the total size.
+            stickerPack.setStickers(stickers);
+        }
     }
 
-    @NonNull
-    private static List<Sticker> fetchFromContentProviderForStickers(String identifier, ContentResolver contentResolver) {
-        Uri uri = getStickerListUri(identifier);
-
-        final String[] projection = {STICKER_FILE_NAME_IN_QUERY, STICKER_FILE_EMOJI_IN_QUERY, STICKER_FILE_ACCESSIBILITY_TEXT_IN_QUERY};
-        final Cursor cursor = contentResolver.query(uri, projection, null, null, null);
-        List<Sticker> stickers = new ArrayList<>();
-        if (cursor != null && cursor.getCount() > 0) {
-            cursor.moveToFirst();
-            do {
-                final String name = cursor.getString(cursor.getColumnIndexOrThrow(STICKER_FILE_NAME_IN_QUERY));
-                final String emojisConcatenated = cursor.getString(cursor.getColumnIndexOrThrow(STICKER_FILE_EMOJI_IN_QUERY));
-                final String accessibilityText = cursor.getString(cursor.getColumnIndexOrThrow(STICKER_FILE_ACCESSIBILITY_TEXT_IN_QUERY));
-                List<String> emojis = new ArrayList<>(StickerPackValidator.EMOJI_MAX_LIMIT);
-                if (!TextUtils.isEmpty(emojisConcatenated)) {
-                    emojis = Arrays.asList(emojisConcatenated.split(","));
+    /**
+     * The length of the descriptor the provider opens for the file, the file is only read when the
+     * provider does not know it.
+     */
+    private static long readStickerSize(@NonNull Context context, @NonNull StickerPack stickerPack, @NonNull Sticker sticker) {
+        try {
+            long size;
+            try (AssetFileDescriptor fileDescriptor = context.getContentResolver().openAssetFileDescriptor(getStickerAssetUri(stickerPack.identifier, sticker.imageFileName), "r")) {
+                if (fileDescriptor == null) {
+                    throw new IOException("cannot open sticker asset: " + stickerPack.identifier + "/" + sticker.imageFileName);
                 }
-                stickers.add(new Sticker(name, emojis, accessibilityText));
-            } while (cursor.moveToNext());
-        }
-        if (cursor != null) {
-            cursor.close();
+                size = fileDescriptor.getLength();
+            }
+            if (size == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                size = fetchStickerAsset(stickerPack.identifier, sticker.imageFileName, context.getContentResolver()).length;
+            }
+            if (size <= 0) {
+                throw new IllegalStateException("Asset file is empty, pack: " + stickerPack.name + ", sticker: " + sticker.imageFileName);
+            }
+            return size;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("Asset file doesn't exist. pack: " + stickerPack.name + ", sticker: " + sticker.imageFileName, e);
         }
-        return stickers;
     }
 
     static byte[] fetchStickerAsset(@NonNull final String identifier, @NonNull final String name, ContentResolver contentResolver) throws IOException {
@@ -159,11 +169,31 @@ class StickerPackLoader {
         }
     }
 
-    private static Uri getStickerListUri(String identifier) {
-        return new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(BuildConfig.CONTENT_PROVIDER_AUTHORITY).appendPath(StickerContentProvider.STICKERS).appendPath(identifier).build();
-    }
-
     static Uri getStickerAssetUri(String identifier, String stickerName) {
         return new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(BuildConfig.CONTENT_PROVIDER_AUTHORITY).appendPath(StickerContentProvider.STICKERS_ASSET).appendPath(identifier).appendPath(stickerName).build();
     }
+
+    /**
+     * Uri of the sticker for the app's own views. Stickers in the sticker bundle are loaded by blob,
+     * so a sticker shared by several packs is decoded and cached once.
+     */
+    static Uri getStickerImageUri(String identifier, Sticker sticker) {
+        return getStickerImageUriBuilder(identifier, sticker).build();
+    }
+
+    /**
+     * Uri of a copy of the sticker scaled down to fit in maxDimension pixels, for views that draw it
+     * smaller than its original size. Animated stickers are returned at their original size.
+     */
+    static Uri getStickerThumbnailUri(String identifier, Sticker sticker, int maxDimension) {
+        return getStickerImageUriBuilder(identifier, sticker).appendQueryParameter(StickerThumbnailCache.MAX_DIMENSION, String.valueOf(maxDimension)).build();
+    }
+
+    private static Uri.Builder getStickerImageUriBuilder(String identifier, Sticker sticker) {
+        final Uri.Builder builder = new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(BuildConfig.CONTENT_PROVIDER_AUTHORITY);
+        if (sticker.blobKey != null) {
+            return builder.appendPath(StickerContentProvider.STICKER_BLOB).appendPath(sticker.blobKey);
+        }
+        return builder.appendPath(StickerContentProvider.STICKERS_ASSET).appendPath(identifier).appendPath(sticker.imageFileName);
+    }
 }
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The selection and sort order of a metadata query. Only what can be answered from the catalog's
+ * indexes is supported:
+ * <pre>
+ * selection:  clause [AND clause]...
+ * clause:     column = value | column IN (value [, value]...)
+ * column:     sticker_pack_identifier | sticker_pack_publisher | animated_sticker_pack
+ * value:      ? | 'string' | integer
+ * sort order: sticker_pack_name | sticker_pack_publisher [ASC | DESC]
+ * </pre>
+ * A selection or sort order that does not fit is ignored, the same way it was before queries
+ * supported them, so such callers keep getting every pack in catalog order.
+ */
+class StickerPackQuery {
+    static final StickerPackQuery ALL = new StickerPackQuery(null, null, null, null, false, null);
+
+    @Nullable
+    final Set<String> identifiers;
+    @Nullable
+    final Set<String> publishers;
+    @Nullable
+    final Set<Boolean> animatedStickerPack;
+    @Nullable
+    private final Comparator<StickerPack> comparator;
+    @Nullable
+    private final String key;
+
+    private StickerPackQuery(@Nullable Set<String> identifiers, @Nullable Set<String> publishers, @Nullable Set<Boolean> animatedStickerPack,
+                             @Nullable String sortColumn, boolean descending, @Nullable String key) {
+        this.identifiers = identifiers;
+        this.publishers = publishers;
+        this.animatedStickerPack = animatedStickerPack;
+        this.comparator = getComparator(sortColumn, descending);
+        this.key = key;
+    }
+
+    @NonNull
+    static StickerPackQuery parse(@Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        final boolean hasSelection = selection != null && !selection.trim().isEmpty();
+        final boolean hasSortOrder = sortOrder != null && !sortOrder.trim().isEmpty();
+        if (!hasSelection && !hasSortOrder) {
+            return ALL;
+        }
+        final SelectionParser selectionParser = new SelectionParser(hasSelection ? selection : "", selectionArgs);
+        if (hasSelection && !selectionParser.parse()) {
+            selectionParser.clear();
+        }
+        String sortColumn = null;
+        boolean descending = false;
+        if (hasSortOrder) {
+            final String[] terms = sortOrder.trim().split("\\s+");
+            final String column = terms[0];
+            final String direction = terms.length > 1 ? terms[1].toUpperCase(Locale.US) : "ASC";
+            if (terms.length <= 2 && (StickerContentProvider.STICKER_PACK_NAME_IN_QUERY.equals(column) || StickerContentProvider.STICKER_PACK_PUBLISHER_IN_QUERY.equals(column))
+                    && ("ASC".equals(direction) || "DESC".equals(direction))) {
+                sortColumn = column;
+                descending = "DESC".equals(direction);
+            }
+        }
+        if (selectionParser.isEmpty() && sortColumn == null) {
+            return ALL;
+        }
+        final StringBuilder key = new StringBuilder();
+        key.append(selection).append('\u0000');
+        if (selectionArgs != null) {
+            for (String selectionArg : selectionArgs) {
+                key.append(selectionArg).append('\u0000');
+            }
+        }
+        key.append(sortOrder);
+        return new StickerPackQuery(selectionParser.identifiers, selectionParser.publishers, selectionParser.animatedStickerPack, sortColumn, descending, key.toString());
+    }
+
+    /**
+     * Identifies the query in caches, null for {@link #ALL}.
+     */
+    @Nullable
+    String getKey() {
+        return key;
+    }
+
+    boolean hasSelection() {
+        return identifiers != null || publishers != null || animatedStickerPack != null;
+    }
+
+    boolean matches(@NonNull StickerPack stickerPack) {
+        return (identifiers == null || identifiers.contains(stickerPack.identifier))
+                && (publishers == null || publishers.contains(stickerPack.publisher))
+                && (animatedStickerPack == null || animatedStickerPack.contains(stickerPack.animatedStickerPack));
+    }
+
+    /**
+     * Sorts the packs if the query has a sort order, packs that compare equal keep their order.
+     */
+    @NonNull
+    List<StickerPack> sort(@NonNull List<StickerPack> stickerPacks) {
+        if (comparator == null || stickerPacks.size() < 2) {
+            return stickerPacks;
+        }
+        final List<StickerPack> sorted = new ArrayList<>(stickerPacks);
+        Collections.sort(sorted, comparator);
+        return sorted;
+    }
+
+    @Nullable
+    private static Comparator<StickerPack> getComparator(@Nullable String sortColumn, boolean descending) {
+        if (sortColumn == null) {
+            return null;
+        }
+        final boolean byName = StickerContentProvider.STICKER_PACK_NAME_IN_QUERY.equals(sortColumn);
+        final int direction = descending ? -1 : 1;
+        return (first, second) -> direction * (byName ? first.name.compareTo(second.name) : first.publisher.compareTo(second.publisher));
+    }
+
+    private static class SelectionParser {
+        @NonNull
+        private final String selection;
+        @Nullable
+        private final String[] selectionArgs;
+        private int position;
+        private int argIndex;
+        Set<String> identifiers;
+        Set<String> publishers;
+        Set<Boolean> animatedStickerPack;
+
+        SelectionParser(@NonNull String selection, @Nullable String[] selectionArgs) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+        }
+
+        boolean isEmpty() {
+            return identifiers == null && publishers == null && animatedStickerPack == null;
+        }
+
+        void clear() {
+            identifiers = null;
+            publishers = null;
+            animatedStickerPack = null;
+        }
+
+        /**
+         * @return false if the selection is not supported.
+         */
+        boolean parse() {
+            do {
+                if (!parseClause()) {
+                    return false;
+                }
+            } while ("AND".equalsIgnoreCase(nextWord()));
+            skipWhitespace();
+            return position == selection.length();
+        }
+
+        private boolean parseClause() {
+            final String column = nextWord();
+            if (column == null) {
+                return false;
+            }
+            final List<String> values = new ArrayList<>();
+            skipWhitespace();
+            if (consumeIf('=')) {
+                final String value = nextValue();
+                if (value == null) {
+                    return false;
+                }
+                values.add(value);
+            } else if ("IN".equalsIgnoreCase(nextWord())) {
+                skipWhitespace();
+                if (!consumeIf('(')) {
+                    return false;
+                }
+                do {
+                    final String value = nextValue();
+                    if (value == null) {
+                        return false;
+                    }
+                    values.add(value);
+                    skipWhitespace();
+                } while (consumeIf(','));
+                if (!consumeIf(')')) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+            switch (column) {
+                case StickerContentProvider.STICKER_PACK_IDENTIFIER_IN_QUERY:
+                    identifiers = intersect(identifiers, new HashSet<>(values));
+                    return true;
+                case StickerContentProvider.STICKER_PACK_PUBLISHER_IN_QUERY:
+                    publishers = intersect(publishers, new HashSet<>(values));
+                    return true;
+                case StickerContentProvider.ANIMATED_STICKER_PACK:
+                    final Set<Boolean> animated = new HashSet<>();
+                    for (String value : values) {
+                        if ("1".equals(value) || "true".equalsIgnoreCase(value)) {
+                            animated.add(true);
+                        } else if ("0".equals(value) || "false".equalsIgnoreCase(value)) {
+                            animated.add(false);
+                        } else {
+                            return false;
+                        }
+                    }
+                    animatedStickerPack = intersect(animatedStickerPack, animated);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @NonNull
+        private static <T> Set<T> intersect(@Nullable Set<T> current, @NonNull Set<T> values) {
+            if (current != null) {
+                values.retainAll(current);
+            }
+            return values;
+        }
+
+        /**
+         * Reads a ? placeholder, a quoted string or an integer, returns null for anything else.
+         */
+        @Nullable
+        private String nextValue() {
+            skipWhitespace();
+            if (position >= selection.length()) {
+                return null;
+            }
+            final char first = selection.charAt(position);
+            if (first == '?') {
+                position++;
+                if (selectionArgs == null || argIndex >= selectionArgs.length) {
+                    return null;
+                }
+                return selectionArgs[argIndex++];
+            }
+            if (first == '\'') {
+                final StringBuilder value = new StringBuilder();
+                position++;
+                while (position < selection.length()) {
+                    final char c = selection.charAt(position++);
+                    if (c != '\'') {
+                        value.append(c);
+                    } else if (position < selection.length() && selection.charAt(position) == '\'') {
+                        value.append('\'');
+                        position++;
+                    } else {
+                        return value.toString();
+                    }
+                }
+                return null;
+            }
+            final int start = position;
+            if (first == '-') {
+                position++;
+            }
+            while (position < selection.length() && Character.isDigit(selection.charAt(position))) {
+                position++;
+            }
+            return position > start && Character.isDigit(selection.charAt(position - 1)) ? selection.substring(start, position) : null;
+        }
+
+        @Nullable
+        private String nextWord() {
+            skipWhitespace();
+            final int start = position;
+            while (position < selection.length() && (Character.isLetterOrDigit(selection.charAt(position)) || selection.charAt(position) == '_')) {
+                position++;
+            }
+            return position > start ? selection.substring(start, position) : null;
+        }
+
+        private boolean consumeIf(char c) {
+            if (position < selection.length() && selection.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (position < selection.length() && Character.isWhitespace(selection.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
@@ -9,7 +9,6 @@
 package com.example.samplestickerapp;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.text.TextUtils;
 import android.util.Log;
@@ -25,6 +24,7 @@ import com.facebook.imagepipeline.common.ImageDecodeOptions;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 class StickerPackValidator {
@@ -38,7 +38,7 @@ class StickerPackValidator {
     private static final int IMAGE_HEIGHT = 512;
     private static final int IMAGE_WIDTH = 512;
     private static final int STICKER_SIZE_MIN = 3;
-    private static final int STICKER_SIZE_MAX = 30;
+    static final int STICKER_SIZE_MAX = 30;
     private static final int CHAR_COUNT_MAX = 128;
     private static final long KB_IN_BYTES = 1024;
     private static final int TRAY_IMAGE_FILE_SIZE_MAX_KB = 50;
@@ -50,10 +50,99 @@ class StickerPackValidator {
     private static final String APPLE_STORE_DOMAIN = "itunes.apple.com";
 
 
+    /**
+     * What is checked of a tray image or sticker file, read once from its bytes.
+     */
+    static class ImageInfo {
+        final long size;
+        final int width;
+        final int height;
+        final int frameCount;
+        @NonNull
+        final int[] frameDurations;
+        final int duration;
+
+        private ImageInfo(long size, int width, int height, int frameCount, @NonNull int[] frameDurations, int duration) {
+            this.size = size;
+            this.width = width;
+            this.height = height;
+            this.frameCount = frameCount;
+            this.frameDurations = frameDurations;
+            this.duration = duration;
+        }
+
+        /**
+         * Only the bounds are decoded, a width and height of -1 mean it is not an image.
+         */
+        @NonNull
+        static ImageInfo readTrayImage(@NonNull byte[] bytes, int length) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(bytes, 0, length, options);
+            return new ImageInfo(length, options.outWidth, options.outHeight, 1, new int[0], 0);
+        }
+
+        @NonNull
+        static ImageInfo readSticker(@NonNull byte[] bytes, @NonNull String identifier, @NonNull String fileName) throws IllegalStateException {
+            try {
+                return readSticker(WebPImage.createFromByteArray(bytes, ImageDecodeOptions.defaults()), bytes.length);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("Error parsing webp image, sticker pack identifier: " + identifier + ", filename: " + fileName, e);
+            }
+        }
+
+        /**
+         * Reads the first length bytes of a buffer that is reused from file to file. They are copied into
+         * directBuffer, which is reused as well, so nothing the size of the file is allocated.
+         */
+        @NonNull
+        static ImageInfo readSticker(@NonNull byte[] bytes, int length, @NonNull ByteBuffer directBuffer, @NonNull String identifier, @NonNull String fileName) throws IllegalStateException {
+            if (length > directBuffer.capacity()) {
+                throw new IllegalStateException("sticker file is larger than " + directBuffer.capacity() / KB_IN_BYTES + " KB, sticker pack identifier: " + identifier + ", filename: " + fileName);
+            }
+            directBuffer.clear();
+            directBuffer.put(bytes, 0, length);
+            directBuffer.flip();
+            try {
+                //the file is read up to the capacity of the buffer, so the decoder is given a slice of the file's length.
+                return readSticker(WebPImage.createFromByteBuffer(directBuffer.slice(), ImageDecodeOptions.defaults()), length);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("Error parsing webp image, sticker pack identifier: " + identifier + ", filename: " + fileName, e);
+            }
+        }
+
+        @NonNull
+        private static ImageInfo readSticker(@NonNull WebPImage webPImage, int length) {
+            try {
+                return new ImageInfo(length, webPImage.getWidth(), webPImage.getHeight(), webPImage.getFrameCount(), webPImage.getFrameDurations(), webPImage.getDuration());
+            } finally {
+                webPImage.dispose();
+            }
+        }
+    }
+
     /**
      * Checks whether a sticker pack contains valid data
      */
     static void verifyStickerPackValidity(@NonNull Context context, @NonNull StickerPack stickerPack) throws IllegalStateException {
+        verifyStickerPackMetadata(stickerPack);
+        try {
+            final byte[] stickerAssetBytes = StickerPackLoader.fetchStickerAsset(stickerPack.identifier, stickerPack.trayImageFile, context.getContentResolver());
+            verifyTrayImage(stickerPack, ImageInfo.readTrayImage(stickerAssetBytes, stickerAssetBytes.length));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open tray image, " + stickerPack.trayImageFile, e);
+        }
+        final List<Sticker> stickers = stickerPack.getStickers();
+        verifyStickerCount(stickerPack, stickers);
+        for (final Sticker sticker : stickers) {
+            validateSticker(context, stickerPack.identifier, sticker, stickerPack.animatedStickerPack);
+        }
+    }
+
+    /**
+     * The checks of {@link #verifyStickerPackValidity} that do not need the pack's files.
+     */
+    static void verifyStickerPackMetadata(@NonNull StickerPack stickerPack) throws IllegalStateException {
         if (TextUtils.isEmpty(stickerPack.identifier)) {
             throw new IllegalStateException("sticker pack identifier is empty");
         }
@@ -100,31 +189,47 @@ class StickerPackValidator {
         if (!TextUtils.isEmpty(stickerPack.publisherEmail) && !Patterns.EMAIL_ADDRESS.matcher(stickerPack.publisherEmail).matches()) {
             throw new IllegalStateException("publisher email does not seem valid, email is: " + stickerPack.publisherEmail);
         }
-        try {
-            final byte[] stickerAssetBytes = StickerPackLoader.fetchStickerAsset(stickerPack.identifier, stickerPack.trayImageFile, context.getContentResolver());
-            if (stickerAssetBytes.length > TRAY_IMAGE_FILE_SIZE_MAX_KB * KB_IN_BYTES) {
-                throw new IllegalStateException("tray image should be less than " + TRAY_IMAGE_FILE_SIZE_MAX_KB + " KB, tray image file: " + stickerPack.trayImageFile);
-            }
-            Bitmap bitmap = BitmapFactory.decodeByteArray(stickerAssetBytes, 0, stickerAssetBytes.length);
-            if (bitmap.getHeight() > TRAY_IMAGE_DIMENSION_MAX || bitmap.getHeight() < TRAY_IMAGE_DIMENSION_MIN) {
-                throw new IllegalStateException("tray image height should between " + TRAY_IMAGE_DIMENSION_MIN + " and " + TRAY_IMAGE_DIMENSION_MAX + " pixels, current tray image height is " + bitmap.getHeight() + ", tray image file: " + stickerPack.trayImageFile);
-            }
-            if (bitmap.getWidth() > TRAY_IMAGE_DIMENSION_MAX || bitmap.getWidth() < TRAY_IMAGE_DIMENSION_MIN) {
-                throw new IllegalStateException("tray image width should be between " + TRAY_IMAGE_DIMENSION_MIN + " and " + TRAY_IMAGE_DIMENSION_MAX + " pixels, current tray image width is " + bitmap.getWidth() + ", tray image file: " + stickerPack.trayImageFile);
-            }
-        } catch (IOException e) {
-            throw new IllegalStateException("Cannot open tray image, " + stickerPack.trayImageFile, e);
+    }
+
+    static void verifyTrayImage(@NonNull StickerPack stickerPack, @NonNull ImageInfo trayImage) throws IllegalStateException {
+        if (trayImage.size > TRAY_IMAGE_FILE_SIZE_MAX_KB * KB_IN_BYTES) {
+            throw new IllegalStateException("tray image should be less than " + TRAY_IMAGE_FILE_SIZE_MAX_KB + " KB, tray image file: " + stickerPack.trayImageFile);
         }
-        final List<Sticker> stickers = stickerPack.getStickers();
+        if (trayImage.height > TRAY_IMAGE_DIMENSION_MAX || trayImage.height < TRAY_IMAGE_DIMENSION_MIN) {
+            throw new IllegalStateException("tray image height should between " + TRAY_IMAGE_DIMENSION_MIN + " and " + TRAY_IMAGE_DIMENSION_MAX + " pixels, current tray image height is " + trayImage.height + ", tray image file: " + stickerPack.trayImageFile);
+        }
+        if (trayImage.width > TRAY_IMAGE_DIMENSION_MAX || trayImage.width < TRAY_IMAGE_DIMENSION_MIN) {
+            throw new IllegalStateException("tray image width should be between " + TRAY_IMAGE_DIMENSION_MIN + " and " + TRAY_IMAGE_DIMENSION_MAX + " pixels, current tray image width is " + trayImage.width + ", tray image file: " + stickerPack.trayImageFile);
+        }
+    }
+
+    static void verifyStickerCount(@NonNull StickerPack stickerPack, @NonNull List<Sticker> stickers) throws IllegalStateException {
         if (stickers.size() < STICKER_SIZE_MIN || stickers.size() > STICKER_SIZE_MAX) {
             throw new IllegalStateException("sticker pack sticker count should be between 3 to 30 inclusive, it currently has " + stickers.size() + ", sticker pack identifier: " + stickerPack.identifier);
         }
-        for (final Sticker sticker : stickers) {
-            validateSticker(context, stickerPack.identifier, sticker, stickerPack.animatedStickerPack);
-        }
+    }
+
+    /**
+     * Largest sticker file a pack can have, animated stickers are allowed more than static ones.
+     */
+    static long getMaxStickerFileBytes(boolean animatedStickerPack) {
+        return (animatedStickerPack ? ANIMATED_STICKER_FILE_LIMIT_KB : STATIC_STICKER_FILE_LIMIT_KB) * KB_IN_BYTES;
+    }
+
+    /**
+     * Checks a sticker whose file was already read into info.
+     */
+    static void verifySticker(@NonNull String identifier, @NonNull Sticker sticker, boolean animatedStickerPack, @NonNull ImageInfo info) throws IllegalStateException {
+        verifyStickerMetadata(identifier, sticker, animatedStickerPack);
+        verifyStickerFile(identifier, sticker.imageFileName, animatedStickerPack, info);
     }
 
     private static void validateSticker(@NonNull Context context, @NonNull final String identifier, @NonNull final Sticker sticker, final boolean animatedStickerPack) throws IllegalStateException {
+        verifyStickerMetadata(identifier, sticker, animatedStickerPack);
+        validateStickerFile(context, identifier, sticker.imageFileName, animatedStickerPack);
+    }
+
+    static void verifyStickerMetadata(@NonNull final String identifier, @NonNull final Sticker sticker, final boolean animatedStickerPack) throws IllegalStateException {
         if (sticker.emojis.size() > EMOJI_MAX_LIMIT) {
             throw new IllegalStateException("emoji count exceed limit, sticker pack identifier: " + identifier + ", filename: " + sticker.imageFileName);
         }
@@ -138,7 +243,6 @@ class StickerPackValidator {
         if (isInvalidAccessibilityText(accessibilityText, animatedStickerPack)) {
             throw new IllegalStateException("accessibility text length exceed limit, sticker pack identifier: " + identifier + ", filename: " + sticker.imageFileName);
         }
-        validateStickerFile(context, identifier, sticker.imageFileName, animatedStickerPack);
     }
 
     private static boolean isInvalidAccessibilityText(final @Nullable String accessibilityText, final boolean isAnimatedStickerPack) {
@@ -152,39 +256,38 @@ class StickerPackValidator {
     private static void validateStickerFile(@NonNull Context context, @NonNull String identifier, @NonNull final String fileName, final boolean animatedStickerPack) throws IllegalStateException {
         try {
             final byte[] stickerInBytes = StickerPackLoader.fetchStickerAsset(identifier, fileName, context.getContentResolver());
-            if (!animatedStickerPack && stickerInBytes.length > STATIC_STICKER_FILE_LIMIT_KB * KB_IN_BYTES) {
-                throw new IllegalStateException("static sticker should be less than " + STATIC_STICKER_FILE_LIMIT_KB + "KB, current file is " + stickerInBytes.length / KB_IN_BYTES + " KB, sticker pack identifier: " + identifier + ", filename: " + fileName);
-            }
-            if (animatedStickerPack && stickerInBytes.length > ANIMATED_STICKER_FILE_LIMIT_KB * KB_IN_BYTES) {
-                throw new IllegalStateException("animated sticker should be less than " + ANIMATED_STICKER_FILE_LIMIT_KB + "KB, current file is " + stickerInBytes.length / KB_IN_BYTES + " KB, sticker pack identifier: " + identifier + ", filename: " + fileName);
-            }
-            try {
-                final WebPImage webPImage = WebPImage.createFromByteArray(stickerInBytes, ImageDecodeOptions.defaults());
-                if (webPImage.getHeight() != IMAGE_HEIGHT) {
-                    throw new IllegalStateException("sticker height should be " + IMAGE_HEIGHT + ", current height is " + webPImage.getHeight() + ", sticker pack identifier: " + identifier + ", filename: " + fileName);
-                }
-                if (webPImage.getWidth() != IMAGE_WIDTH) {
-                    throw new IllegalStateException("sticker width should be " + IMAGE_WIDTH + ", current width is " + webPImage.getWidth() + ", sticker pack identifier: " + identifier + ", filename: " + fileName);
-                }
-                if (animatedStickerPack) {
-                    if (webPImage.getFrameCount() <= 1) {
-                        throw new IllegalStateException("this pack is marked as animated sticker pack, all stickers should animate, sticker pack identifier: " + identifier + ", filename: " + fileName);
-                    }
-                    checkFrameDurationsForAnimatedSticker(webPImage.getFrameDurations(), identifier, fileName);
-                    if (webPImage.getDuration() > ANIMATED_STICKER_TOTAL_DURATION_MAX) {
-                        throw new IllegalStateException("sticker animation max duration is: " + ANIMATED_STICKER_TOTAL_DURATION_MAX + " ms, current duration is: " + webPImage.getDuration() + " ms, sticker pack identifier: " + identifier + ", filename: " + fileName);
-                    }
-                } else if (webPImage.getFrameCount() > 1) {
-                    throw new IllegalStateException("this pack is not marked as animated sticker pack, all stickers should be static stickers, sticker pack identifier: " + identifier + ", filename: " + fileName);
-                }
-            } catch (IllegalArgumentException e) {
-                throw new IllegalStateException("Error parsing webp image, sticker pack identifier: " + identifier + ", filename: " + fileName, e);
-            }
+            verifyStickerFile(identifier, fileName, animatedStickerPack, ImageInfo.readSticker(stickerInBytes, identifier, fileName));
         } catch (IOException e) {
             throw new IllegalStateException("cannot open sticker file: sticker pack identifier: " + identifier + ", filename: " + fileName, e);
         }
     }
 
+    private static void verifyStickerFile(@NonNull String identifier, @NonNull String fileName, boolean animatedStickerPack, @NonNull ImageInfo info) throws IllegalStateException {
+        if (!animatedStickerPack && info.size > STATIC_STICKER_FILE_LIMIT_KB * KB_IN_BYTES) {
+            throw new IllegalStateException("static sticker should be less than " + STATIC_STICKER_FILE_LIMIT_KB + "KB, current file is " + info.size / KB_IN_BYTES + " KB, sticker pack identifier: " + identifier + ", filename: " + fileName);
+        }
+        if (animatedStickerPack && info.size > ANIMATED_STICKER_FILE_LIMIT_KB * KB_IN_BYTES) {
+            throw new IllegalStateException("animated sticker should be less than " + ANIMATED_STICKER_FILE_LIMIT_KB + "KB, current file is " + info.size / KB_IN_BYTES + " KB, sticker pack identifier: " + identifier + ", filename: " + fileName);
+        }
+        if (info.height != IMAGE_HEIGHT) {
+            throw new IllegalStateException("sticker height should be " + IMAGE_HEIGHT + ", current height is " + info.height + ", sticker pack identifier: " + identifier + ", filename: " + fileName);
+        }
+        if (info.width != IMAGE_WIDTH) {
+            throw new IllegalStateException("sticker width should be " + IMAGE_WIDTH + ", current width is " + info.width + ", sticker pack identifier: " + identifier + ", filename: " + fileName);
+        }
+        if (animatedStickerPack) {
+            if (info.frameCount <= 1) {
+                throw new IllegalStateException("this pack is marked as animated sticker pack, all stickers should animate, sticker pack identifier: " + identifier + ", filename: " + fileName);
+            }
+            checkFrameDurationsForAnimatedSticker(info.frameDurations, identifier, fileName);
+            if (info.duration > ANIMATED_STICKER_TOTAL_DURATION_MAX) {
+                throw new IllegalStateException("sticker animation max duration is: " + ANIMATED_STICKER_TOTAL_DURATION_MAX + " ms, current duration is: " + info.duration + " ms, sticker pack identifier: " + identifier + ", filename: " + fileName);
+            }
+        } else if (info.frameCount > 1) {
+            throw new IllegalStateException("this pack is not marked as animated sticker pack, all stickers should be static stickers, sticker pack identifier: " + identifier + ", filename: " + fileName);
+        }
+    }
+
     private static void checkFrameDurationsForAnimatedSticker(@NonNull final int[] frameDurations, @NonNull final String identifier, @NonNull final String fileName) {
         for (int frameDuration : frameDurations) {
             if (frameDuration < ANIMATED_STICKER_FRAME_DURATION_MIN) {
@@ -77,7 +77,7 @@ public class StickerPreviewAdapter extends ListAdapter<Sticker, StickerPreviewVi
     public void onBindViewHolder(@NonNull final StickerPreviewViewHolder stickerPreviewViewHolder, final int i) {
         Sticker sticker = getItem(i);
         stickerPreviewViewHolder.stickerPreviewView.setImageResource(errorResource);
-        stickerPreviewViewHolder.stickerPreviewView.setImageURI(StickerPackLoader.getStickerAssetUri(stickerPack.identifier, sticker.imageFileName));
+        stickerPreviewViewHolder.stickerPreviewView.setImageURI(StickerPackLoader.getStickerThumbnailUri(stickerPack.identifier, sticker, cellSize));
         stickerPreviewViewHolder.stickerPreviewView.setOnClickListener(v -> expandPreview(i, stickerPreviewViewHolder.stickerPreviewView));
     }
 
@@ -172,7 +172,7 @@ public class StickerPreviewAdapter extends ListAdapter<Sticker, StickerPreviewVi
         if (expandedStickerPreview != null) {
             positionExpandedStickerPreview(position);
 
-            final Uri stickerAssetUri = StickerPackLoader.getStickerAssetUri(stickerPack.identifier, getItem(position).imageFileName);
+            final Uri stickerAssetUri = StickerPackLoader.getStickerImageUri(stickerPack.identifier, getItem(position));
             DraweeController controller = Fresco.newDraweeControllerBuilder()
                     .setUri(stickerAssetUri)
                     .setAutoPlayAnimations(true)
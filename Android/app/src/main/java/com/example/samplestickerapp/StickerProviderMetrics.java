@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import androidx.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters for the calls the content provider serves, per uri match code: number of calls, failed
+ * calls, calls that returned nothing, total time and a latency histogram. Bytes served are also
+ * counted per pack.
+ * <p>
+ * Everything is kept in atomic arrays indexed by match code, so recording a call takes no lock and
+ * allocates nothing, apart from the counter created the first time a pack's file is served.
+ */
+class StickerProviderMetrics {
+    // latency buckets are powers of two in microseconds, the last one holds everything above.
+    private static final int LATENCY_BUCKETS = 24;
+
+    private static final int CALLS = 0;
+    private static final int ERRORS = 1;
+    private static final int EMPTY_RESULTS = 2;
+    private static final int TOTAL_NANOS = 3;
+    private static final int FIELDS = 4;
+
+    @NonNull
+    private final String[] codeNames;
+    @NonNull
+    private final AtomicLongArray counters;
+    @NonNull
+    private final AtomicLongArray latencies;
+    private final ConcurrentHashMap<String, AtomicLong> bytesServed = new ConcurrentHashMap<>();
+
+    /**
+     * @param codeNames name of each match code, indexed by code. Codes outside of it, such as
+     *                  UriMatcher.NO_MATCH, are recorded under the first name.
+     */
+    StickerProviderMetrics(@NonNull String[] codeNames) {
+        this.codeNames = codeNames;
+        this.counters = new AtomicLongArray(codeNames.length * FIELDS);
+        this.latencies = new AtomicLongArray(codeNames.length * LATENCY_BUCKETS);
+    }
+
+    /**
+     * @param empty whether the call returned no cursor or no file.
+     */
+    void recordCall(int code, long elapsedNanos, boolean failed, boolean empty) {
+        final int index = code >= 0 && code < codeNames.length ? code : 0;
+        counters.incrementAndGet(index * FIELDS + CALLS);
+        counters.addAndGet(index * FIELDS + TOTAL_NANOS, elapsedNanos);
+        if (failed) {
+            counters.incrementAndGet(index * FIELDS + ERRORS);
+        } else if (empty) {
+            counters.incrementAndGet(index * FIELDS + EMPTY_RESULTS);
+        }
+        latencies.incrementAndGet(index * LATENCY_BUCKETS + getLatencyBucket(elapsedNanos));
+    }
+
+    void recordBytesServed(@NonNull String identifier, long bytes) {
+        AtomicLong packBytes = bytesServed.get(identifier);
+        if (packBytes == null) {
+            final AtomicLong newPackBytes = new AtomicLong();
+            packBytes = bytesServed.putIfAbsent(identifier, newPackBytes);
+            if (packBytes == null) {
+                packBytes = newPackBytes;
+            }
+        }
+        packBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Current values by name, codes that were never called are left out.
+     */
+    @NonNull
+    Map<String, Long> snapshot() {
+        final Map<String, Long> snapshot = new LinkedHashMap<>();
+        for (int code = 0; code < codeNames.length; code++) {
+            final long calls = counters.get(code * FIELDS + CALLS);
+            if (calls == 0) {
+                continue;
+            }
+            final String name = codeNames[code];
+            snapshot.put(name + ".calls", calls);
+            snapshot.put(name + ".errors", counters.get(code * FIELDS + ERRORS));
+            snapshot.put(name + ".empty_results", counters.get(code * FIELDS + EMPTY_RESULTS));
+            snapshot.put(name + ".mean_us", counters.get(code * FIELDS + TOTAL_NANOS) / calls / 1000);
+            snapshot.put(name + ".p50_us", getLatencyPercentile(code, calls, 50));
+            snapshot.put(name + ".p99_us", getLatencyPercentile(code, calls, 99));
+        }
+        for (Map.Entry<String, AtomicLong> packBytes : bytesServed.entrySet()) {
+            snapshot.put("bytes_served." + packBytes.getKey(), packBytes.getValue().get());
+        }
+        return snapshot;
+    }
+
+    static void dump(@NonNull PrintWriter writer, @NonNull Map<String, Long> snapshot) {
+        for (Map.Entry<String, Long> value : snapshot.entrySet()) {
+            writer.print("  ");
+            writer.print(value.getKey());
+            writer.print(": ");
+            writer.println(value.getValue());
+        }
+    }
+
+    private static int getLatencyBucket(long elapsedNanos) {
+        final long micros = elapsedNanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), LATENCY_BUCKETS - 1);
+    }
+
+    /**
+     * Upper bound of the bucket holding the percentile, the histogram does not keep more precision.
+     */
+    private long getLatencyPercentile(int code, long calls, int percentile) {
+        final long rank = (calls * percentile + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+            seen += latencies.get(code * LATENCY_BUCKETS + bucket);
+            if (seen >= rank) {
+                return (1L << bucket) - 1;
+            }
+        }
+        //calls recorded while the histogram was being read.
+        return (1L << (LATENCY_BUCKETS - 1)) - 1;
+    }
+}
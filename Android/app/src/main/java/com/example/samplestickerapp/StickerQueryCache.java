@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the rows returned by the content provider's queries, keyed by the uri match code and the
+ * pack identifier. WhatsApp asks for the same metadata and sticker lists over and over, so the rows
+ * are gathered once and every query gets a {@link CatalogCursor} over them.
+ * <p>
+ * The rows are only valid for the catalog and the version of {@link StickerPackDatabase} they were
+ * built from, all of them are dropped as soon as a query sees a newer one.
+ * <p>
+ * Identifiers come from callers, so only the rows of packs that exist are cached, and callers only
+ * cache unfiltered queries. The cache then holds at most a few entries per pack.
+ */
+class StickerQueryCache {
+    interface RowsBuilder<T> {
+        /**
+         * @return null if the pack asked for does not exist, which is not cached.
+         */
+        @Nullable
+        T buildRows();
+    }
+
+    private ConcurrentHashMap<String, Object> responses = new ConcurrentHashMap<>();
+    private long catalogVersion = -1;
+    private long storeVersion = -1;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Returns the rows cached for that query, the builder is expected to always return the same type
+     * for a given match code.
+     *
+     * @return null if the builder returned null.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    <T> T getRows(int code, @Nullable String identifier, @NonNull StickerCatalog catalog, long storeVersion, @NonNull RowsBuilder<T> rowsBuilder) {
+        final ConcurrentHashMap<String, Object> responses = getResponses(catalog, storeVersion);
+        final String key = identifier == null ? String.valueOf(code) : code + "/" + identifier;
+        final T cachedRows = responses != null ? (T) responses.get(key) : null;
+        if (cachedRows != null) {
+            hitCount.incrementAndGet();
+            return cachedRows;
+        }
+        final long misses = missCount.incrementAndGet();
+        if (BuildConfig.DEBUG) {
+            Log.d("StickerQueryCache", "building rows for " + key + ", hits: " + hitCount.get() + ", misses: " + misses);
+        }
+        final T rows = rowsBuilder.buildRows();
+        if (responses != null && rows != null) {
+            responses.putIfAbsent(key, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the responses built from that catalog and version, or null if a newer catalog or
+     * version was seen already, in which case the rows are built without being cached.
+     */
+    @Nullable
+    private synchronized ConcurrentHashMap<String, Object> getResponses(@NonNull StickerCatalog catalog, long storeVersion) {
+        //a query still on the catalog a reload replaced must not bring its rows back.
+        if (catalog.getVersion() < catalogVersion || (catalog.getVersion() == catalogVersion && storeVersion < this.storeVersion)) {
+            return null;
+        }
+        if (catalog.getVersion() > catalogVersion || storeVersion > this.storeVersion) {
+            catalogVersion = catalog.getVersion();
+            this.storeVersion = storeVersion;
+            responses = new ConcurrentHashMap<>();
+        }
+        return responses;
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warms the page cache ahead of a consumer syncing a pack. WhatsApp queries stickers/&lt;identifier&gt;
+ * and then opens every file of the pack in order, and each open can wait on a cold read from the apk.
+ * Once a pack's stickers were queried and its first file is opened, the files that follow it are
+ * touched on a background thread, a window at a time, so they are in the page cache when opened.
+ * <p>
+ * The window doubles every time the consumer opens a file that was warmed, and halves every time it
+ * opens one that was not queued, so consumers that skip around get little read ahead. A file opened
+ * while still queued is counted apart, the consumer reads in order but faster than files are warmed. Warming is cancelled
+ * when the pack is queried again or the catalog is replaced. Only files whose position in the apk is
+ * known are warmed.
+ */
+class StickerReadAhead {
+    private static final String TAG = "StickerReadAhead";
+    private static final int MIN_WINDOW = 4;
+    private static final int MAX_WINDOW = 64;
+    // states of the files of a session.
+    private static final byte NOT_QUEUED = 0;
+    private static final byte QUEUED = 1;
+    private static final byte WARMED = 2;
+
+    @NonNull
+    private final ApkAssetTable apkAssetTable;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // packs whose stickers were queried, waiting for their first file to be opened.
+    private final ConcurrentHashMap<String, Boolean> queriedPacks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong sessionCount = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong lateFiles = new AtomicLong();
+    private final AtomicLong warmedFiles = new AtomicLong();
+    private final AtomicLong warmedBytes = new AtomicLong();
+    private final AtomicLong unusedFiles = new AtomicLong();
+
+    StickerReadAhead(@NonNull ApkAssetTable apkAssetTable) {
+        this.apkAssetTable = apkAssetTable;
+    }
+
+    void onStickersQueried(@NonNull String identifier) {
+        //a new sync of the pack, the previous one is over.
+        endSession(sessions.remove(identifier));
+        queriedPacks.put(identifier, Boolean.TRUE);
+    }
+
+    void onAssetOpened(@NonNull StickerCatalog catalog, @NonNull StickerAsset asset) {
+        Session session = sessions.get(asset.identifier);
+        if (session == null) {
+            if (queriedPacks.remove(asset.identifier) == null) {
+                return;
+            }
+            session = new Session(catalog.getAssets(asset.identifier));
+            final Session previous = sessions.put(asset.identifier, session);
+            endSession(previous);
+            sessionCount.incrementAndGet();
+        }
+        session.onAssetOpened(asset.fileName);
+    }
+
+    /**
+     * Stops warming every pack, the files belong to a catalog that is not served anymore.
+     */
+    void cancelAll() {
+        queriedPacks.clear();
+        for (String identifier : new ArrayList<>(sessions.keySet())) {
+            endSession(sessions.remove(identifier));
+        }
+    }
+
+    void snapshot(@NonNull Map<String, Long> snapshot) {
+        snapshot.put("read_ahead.sessions", sessionCount.get());
+        snapshot.put("read_ahead.hits", hits.get());
+        snapshot.put("read_ahead.misses", misses.get());
+        snapshot.put("read_ahead.late_files", lateFiles.get());
+        snapshot.put("read_ahead.warmed_files", warmedFiles.get());
+        snapshot.put("read_ahead.warmed_bytes", warmedBytes.get());
+        snapshot.put("read_ahead.unused_files", unusedFiles.get());
+    }
+
+    private void endSession(@Nullable Session session) {
+        if (session != null) {
+            unusedFiles.addAndGet(session.cancel());
+        }
+    }
+
+    private class Session {
+        @NonNull
+        private final List<StickerAsset> assets;
+        @NonNull
+        private final Map<String, Integer> positions;
+        // whether each file is queued for warming or was warmed, until it is opened.
+        private final byte[] states;
+        private int warmedUpTo;
+        private int window = MIN_WINDOW;
+        private volatile boolean cancelled;
+
+        Session(@NonNull List<StickerAsset> assets) {
+            this.assets = assets;
+            this.positions = new HashMap<>(assets.size() * 2);
+            for (int i = 0; i < assets.size(); i++) {
+                positions.put(assets.get(i).fileName, i);
+            }
+            this.states = new byte[assets.size()];
+        }
+
+        synchronized void onAssetOpened(@NonNull String fileName) {
+            final Integer position = positions.get(fileName);
+            if (position == null || cancelled) {
+                return;
+            }
+            final byte state = states[position];
+            states[position] = NOT_QUEUED;
+            if (state == WARMED) {
+                hits.incrementAndGet();
+                window = Math.min(window * 2, MAX_WINDOW);
+            } else if (state == QUEUED) {
+                //in order, the window is right but the files were not warmed in time.
+                lateFiles.incrementAndGet();
+            } else {
+                //opened again or ahead of the window, the consumer is not reading in order.
+                misses.incrementAndGet();
+                window = Math.max(window / 2, MIN_WINDOW);
+                warmedUpTo = Math.max(warmedUpTo, position + 1);
+            }
+            final int from = warmedUpTo;
+            final int to = Math.min(position + 1 + window, assets.size());
+            if (from >= to) {
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                states[i] = QUEUED;
+            }
+            warmedUpTo = to;
+            executor.execute(() -> warm(from, to));
+        }
+
+        /**
+         * @return the number of files that were warmed and never opened.
+         */
+        synchronized int cancel() {
+            cancelled = true;
+            int unused = 0;
+            for (int i = 0; i < states.length; i++) {
+                if (states[i] == WARMED) {
+                    unused++;
+                }
+                states[i] = NOT_QUEUED;
+            }
+            return unused;
+        }
+
+        private void warm(int from, int to) {
+            for (int i = from; i < to && !cancelled; i++) {
+                final StickerAsset asset = assets.get(i);
+                //opened while queued, there is nothing left to warm it for.
+                if (!isQueued(i)) {
+                    continue;
+                }
+                if (asset.startOffset == ApkAssetTable.UNKNOWN) {
+                    setState(i, NOT_QUEUED);
+                    continue;
+                }
+                try {
+                    apkAssetTable.touch(asset.startOffset, asset.length);
+                    warmedFiles.incrementAndGet();
+                    warmedBytes.addAndGet(asset.length);
+                    setState(i, WARMED);
+                } catch (IOException e) {
+                    //only an optimization, the file is read when it is opened anyway.
+                    Log.w(TAG, "cannot read ahead " + asset.getAssetPath(), e);
+                    for (int j = i; j < to; j++) {
+                        setState(j, NOT_QUEUED);
+                    }
+                    return;
+                }
+            }
+        }
+
+        private synchronized boolean isQueued(int position) {
+            return states[position] == QUEUED;
+        }
+
+        //only files still queued change, one opened meanwhile is not warmed anymore.
+        private synchronized void setState(int position, byte state) {
+            if (states[position] == QUEUED) {
+                states[position] = state;
+            }
+        }
+    }
+}
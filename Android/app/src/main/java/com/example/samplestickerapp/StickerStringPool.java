@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Canonicalizes the values that repeat all over the catalog, such as emojis, publishers and file
+ * names, so every sticker and pack holding the same value shares one immutable instance. It is shared
+ * by the parsers and {@link StickerPackLoader}, so a value read through any of them ends up as the
+ * same instance.
+ * <p>
+ * The pool holds every value it was given, so it is cleared when the catalog is reloaded. It is not
+ * cleared when stored packs are added or removed, which would throw away the catalog's shared values
+ * on every import: the few values a removed pack leaves behind are small and mostly shared anyway.
+ * Instances handed out before a clear stay valid, they are only not shared with the ones after.
+ * <p>
+ * The saved bytes are estimated from ART's object layout: a String takes 16 bytes plus one byte per
+ * char when it only holds ascii chars and two otherwise, an emoji list takes the unmodifiable
+ * wrapper, the ArrayList and its backing array. Objects are rounded up to 8 bytes.
+ */
+class StickerStringPool {
+    private static final StickerStringPool INSTANCE = new StickerStringPool();
+
+    private static final int OBJECT_ALIGNMENT = 8;
+    private static final int STRING_HEADER_BYTES = 16;
+    private static final int UNMODIFIABLE_LIST_BYTES = 16;
+    private static final int ARRAY_LIST_BYTES = 24;
+    private static final int ARRAY_HEADER_BYTES = 12;
+    private static final int REFERENCE_BYTES = 4;
+
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<List<String>, List<String>> emojiLists = new ConcurrentHashMap<>();
+    // the loader receives the emojis joined by ",", keyed by the joined value so a hit does not split it again.
+    private final ConcurrentHashMap<String, List<String>> emojiListsByJoinedValue = new ConcurrentHashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    @NonNull
+    static StickerStringPool getInstance() {
+        return INSTANCE;
+    }
+
+    @Nullable
+    String intern(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        final String canonical = strings.putIfAbsent(value, value);
+        if (canonical == null) {
+            return value;
+        }
+        if (canonical != value) {
+            recordHit(stringBytes(value));
+        }
+        return canonical;
+    }
+
+    /**
+     * Returns the shared, unmodifiable list holding the same emojis. The given list is not kept, so
+     * callers can reuse it as a scratch list.
+     */
+    @NonNull
+    List<String> internEmojis(@NonNull List<String> emojis) {
+        final List<String> canonical = emojiLists.get(emojis);
+        if (canonical != null) {
+            recordHit(emojiListBytes(emojis));
+            return canonical;
+        }
+        final List<String> copy = new ArrayList<>(emojis.size());
+        for (String emoji : emojis) {
+            copy.add(intern(emoji));
+        }
+        final List<String> immutableCopy = Collections.unmodifiableList(copy);
+        final List<String> existing = emojiLists.putIfAbsent(immutableCopy, immutableCopy);
+        return existing != null ? existing : immutableCopy;
+    }
+
+    /**
+     * Same as {@link #internEmojis(List)} for emojis joined by ",", the way they are returned by the
+     * content provider.
+     */
+    @NonNull
+    List<String> internEmojis(@Nullable String emojisConcatenated) {
+        if (TextUtils.isEmpty(emojisConcatenated)) {
+            return Collections.emptyList();
+        }
+        final List<String> canonical = emojiListsByJoinedValue.get(emojisConcatenated);
+        if (canonical != null) {
+            recordHit(emojiListBytes(canonical));
+            return canonical;
+        }
+        final List<String> emojis = new ArrayList<>(StickerPackValidator.EMOJI_MAX_LIMIT);
+        int start = 0;
+        int separator;
+        while ((separator = emojisConcatenated.indexOf(',', start)) >= 0) {
+            emojis.add(emojisConcatenated.substring(start, separator));
+            start = separator + 1;
+        }
+        emojis.add(emojisConcatenated.substring(start));
+        final List<String> interned = internEmojis(emojis);
+        emojiListsByJoinedValue.putIfAbsent(emojisConcatenated, interned);
+        return interned;
+    }
+
+    /**
+     * Forgets every value, the counters keep counting.
+     */
+    void clear() {
+        strings.clear();
+        emojiLists.clear();
+        emojiListsByJoinedValue.clear();
+    }
+
+    /**
+     * Number of times a value was replaced by an instance that was already in the pool.
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Estimate of the heap that would be held by duplicates if nothing was pooled.
+     */
+    long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    int getSize() {
+        return strings.size() + emojiLists.size();
+    }
+
+    private void recordHit(long bytes) {
+        hitCount.incrementAndGet();
+        savedBytes.addAndGet(bytes);
+    }
+
+    private static long stringBytes(@NonNull String value) {
+        int bytesPerChar = 1;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return align(STRING_HEADER_BYTES + (long) value.length() * bytesPerChar);
+    }
+
+    private static long emojiListBytes(@NonNull List<String> emojis) {
+        long bytes = align(UNMODIFIABLE_LIST_BYTES) + align(ARRAY_LIST_BYTES) + align(ARRAY_HEADER_BYTES + (long) emojis.size() * REFERENCE_BYTES);
+        for (String emoji : emojis) {
+            bytes += stringBytes(emoji);
+        }
+        return bytes;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT * OBJECT_ALIGNMENT;
+    }
+}
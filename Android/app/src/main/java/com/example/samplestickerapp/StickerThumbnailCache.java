@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Downscaled copies of tray images and stickers for the app's own lists and grids, which draw them
+ * far smaller than 512x512. A copy is generated the first time a size is asked for and kept in the
+ * cache directory, under the pack's image data version so that updated images are not served stale.
+ * Sizes asked for are rounded up to one of {@link #SIZES}, so only a few copies of an image are ever
+ * kept, and the copies of a pack's previous image data versions are deleted when a new one is made.
+ * <p>
+ * Animated stickers are never downscaled, decoding them to a bitmap would only keep the first frame.
+ */
+class StickerThumbnailCache {
+    /**
+     * Opts key of openTypedAssetFile, and query parameter of a stickers_asset uri, holding the
+     * largest width or height wanted.
+     */
+    static final String MAX_DIMENSION = "max_dimension";
+
+    private static final String THUMBNAIL_DIRECTORY = "sticker_thumbnails";
+    //the largest width or height of the copies, in increasing order.
+    private static final int[] SIZES = {96, 192, 384};
+    private static final int QUALITY = 80;
+
+    interface ImageSource {
+        @NonNull
+        InputStream open() throws IOException;
+    }
+
+    @NonNull
+    private final File directory;
+
+    StickerThumbnailCache(@NonNull File cacheDir) {
+        this.directory = new File(cacheDir, THUMBNAIL_DIRECTORY);
+    }
+
+    /**
+     * Returns the downscaled file, or null if the image already fits in maxDimension rounded up to one
+     * of the sizes, is larger than all of them or cannot be decoded, in which case the original should
+     * be served.
+     */
+    @Nullable
+    File getThumbnail(@NonNull StickerPack stickerPack, @NonNull StickerAsset asset, int maxDimension, @NonNull ImageSource source) throws IOException {
+        if (stickerPack.animatedStickerPack && !asset.trayImage) {
+            return null;
+        }
+        final int size = getSize(maxDimension);
+        if (size < 0) {
+            return null;
+        }
+        //the identifier and file name were already checked against the catalog or the database.
+        final File identifierDirectory = new File(directory, stickerPack.identifier);
+        final String versionSuffix = "_" + Integer.toHexString(stickerPack.imageDataVersion.hashCode());
+        final File packDirectory = new File(identifierDirectory, size + versionSuffix);
+        final File thumbnail = new File(packDirectory, asset.fileName);
+        if (thumbnail.isFile()) {
+            return thumbnail;
+        }
+        final Bitmap bitmap = decodeScaled(source, size);
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            if (!packDirectory.isDirectory()) {
+                deleteOtherVersions(identifierDirectory, versionSuffix);
+                if (!packDirectory.mkdirs() && !packDirectory.isDirectory()) {
+                    throw new IOException("cannot create " + packDirectory);
+                }
+            }
+            //written to a temporary file and renamed, so a concurrent request never serves a partial file.
+            final File temporaryFile = File.createTempFile(asset.fileName, ".tmp", packDirectory);
+            try (FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+                if (!bitmap.compress(getCompressFormat(asset), QUALITY, outputStream)) {
+                    throw new IOException("cannot encode thumbnail of " + asset.getAssetPath());
+                }
+            } catch (IOException e) {
+                temporaryFile.delete();
+                throw e;
+            }
+            if (!temporaryFile.renameTo(thumbnail)) {
+                temporaryFile.delete();
+                throw new IOException("cannot move thumbnail to " + thumbnail);
+            }
+            return thumbnail;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    //the smallest size at least maxDimension, -1 if there is none.
+    private static int getSize(int maxDimension) {
+        for (int size : SIZES) {
+            if (size >= maxDimension) {
+                return size;
+            }
+        }
+        return -1;
+    }
+
+    //the copies of the pack's images at the other image data versions, they are never served again.
+    private static void deleteOtherVersions(@NonNull File identifierDirectory, @NonNull String versionSuffix) {
+        final File[] sizeDirectories = identifierDirectory.listFiles();
+        if (sizeDirectories == null) {
+            return;
+        }
+        for (File sizeDirectory : sizeDirectories) {
+            if (!sizeDirectory.getName().endsWith(versionSuffix)) {
+                StickerPackDatabase.deleteRecursively(sizeDirectory);
+            }
+        }
+    }
+
+    /**
+     * Decodes the image with the largest power of two sample size that keeps it above maxDimension,
+     * then scales it down to fit. Returns null if it is small enough already.
+     */
+    @Nullable
+    private static Bitmap decodeScaled(@NonNull ImageSource source, int maxDimension) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream inputStream = source.open()) {
+            BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        final int largestDimension = Math.max(options.outWidth, options.outHeight);
+        if (largestDimension <= maxDimension) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (largestDimension / (options.inSampleSize * 2) >= maxDimension) {
+            options.inSampleSize *= 2;
+        }
+        final Bitmap sampled;
+        try (InputStream inputStream = source.open()) {
+            sampled = BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        if (sampled == null) {
+            return null;
+        }
+        final float scale = (float) maxDimension / Math.max(sampled.getWidth(), sampled.getHeight());
+        if (scale >= 1) {
+            return sampled;
+        }
+        final Bitmap scaled = Bitmap.createScaledBitmap(sampled, Math.max(1, Math.round(sampled.getWidth() * scale)), Math.max(1, Math.round(sampled.getHeight() * scale)), true);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+
+    @SuppressWarnings("deprecation")
+    @NonNull
+    private static Bitmap.CompressFormat getCompressFormat(@NonNull StickerAsset asset) {
+        //the tray image stays a png, it is served with that mime type.
+        if (asset.trayImage) {
+            return Bitmap.CompressFormat.PNG;
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Per-call latency of the lookups every provider entry point makes, with the catalog index and with
+ * the scans over every pack and sticker it replaced, as the catalog grows from 10 to 10,000 packs.
+ * Results are printed, the only assertions are that both find the same packs and files.
+ * <p>
+ * It only measures, so it is not part of the unit tests, see {@link StickerCatalogTest} for the
+ * catalog's behavior. To run it, remove the {@code @Ignore} and run
+ * {@code ./gradlew testDebugUnitTest --tests com.example.samplestickerapp.StickerCatalogBenchmarkTest -i}.
+ */
+@Ignore("benchmark, run manually")
+public class StickerCatalogBenchmarkTest {
+    private static final int[] PACK_COUNTS = {10, 100, 1_000, 10_000};
+    private static final int STICKERS_PER_PACK = 30;
+    private static final int LOOKUPS = 20_000;
+    private static final int WARM_UP_ROUNDS = 3;
+
+    @Test
+    public void lookupLatencyByPackCount() {
+        System.out.println("packs    index ns/call    scan ns/call");
+        for (int packCount : PACK_COUNTS) {
+            final List<StickerPack> stickerPacks = createStickerPacks(packCount);
+            final StickerCatalog catalog = new StickerCatalog(stickerPacks, null, null, 1);
+            final String[][] lookups = createLookups(stickerPacks);
+            //the scans are quadratic, fewer of them are timed for large catalogs.
+            final int scanLookups = Math.max(LOOKUPS / packCount, 100);
+            long indexNanos = 0;
+            long scanNanos = 0;
+            for (int round = 0; round <= WARM_UP_ROUNDS; round++) {
+                indexNanos = timeIndexLookups(catalog, lookups, LOOKUPS);
+                scanNanos = timeScanLookups(stickerPacks, lookups, scanLookups);
+            }
+            System.out.printf("%5d    %13d    %12d%n", packCount, indexNanos / LOOKUPS, scanNanos / scanLookups);
+        }
+    }
+
+    private static long timeIndexLookups(StickerCatalog catalog, String[][] lookups, int count) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final String[] lookup = lookups[i % lookups.length];
+            final StickerPack stickerPack = catalog.getStickerPack(lookup[0]);
+            final StickerAsset asset = catalog.getAsset(lookup[0], lookup[1]);
+            assertNotNull(stickerPack);
+            assertNotNull(asset);
+        }
+        return System.nanoTime() - start;
+    }
+
+    //what getImageAsset did before the index: find the pack, then the sticker, by scanning.
+    private static long timeScanLookups(List<StickerPack> stickerPacks, String[][] lookups, int count) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final String[] lookup = lookups[i % lookups.length];
+            StickerPack found = null;
+            Sticker foundSticker = null;
+            for (StickerPack stickerPack : stickerPacks) {
+                if (stickerPack.identifier.equals(lookup[0])) {
+                    found = stickerPack;
+                    for (Sticker sticker : stickerPack.getStickers()) {
+                        if (sticker.imageFileName.equals(lookup[1])) {
+                            foundSticker = sticker;
+                            break;
+                        }
+                    }
+                    break;
+                }
+            }
+            assertNotNull(found);
+            assertNotNull(foundSticker);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static List<StickerPack> createStickerPacks(int packCount) {
+        final List<StickerPack> stickerPacks = new ArrayList<>(packCount);
+        for (int i = 0; i < packCount; i++) {
+            final StickerPack stickerPack = new StickerPack("pack_" + i, "Pack " + i, "publisher " + (i % 50), "tray.png",
+                    null, null, null, null, "1", false, i % 4 == 0);
+            final List<Sticker> stickers = new ArrayList<>(STICKERS_PER_PACK);
+            for (int j = 0; j < STICKERS_PER_PACK; j++) {
+                stickers.add(new Sticker(j + ".webp", Collections.singletonList("\u2615"), null));
+            }
+            stickerPack.setStickers(stickers);
+            stickerPacks.add(stickerPack);
+        }
+        return stickerPacks;
+    }
+
+    //random (identifier, sticker file name) pairs, the identifiers are the catalog's own instances.
+    private static String[][] createLookups(List<StickerPack> stickerPacks) {
+        final Random random = new Random(42);
+        final String[][] lookups = new String[1024][];
+        for (int i = 0; i < lookups.length; i++) {
+            final StickerPack stickerPack = stickerPacks.get(random.nextInt(stickerPacks.size()));
+            lookups[i] = new String[]{stickerPack.identifier, stickerPack.getStickers().get(random.nextInt(STICKERS_PER_PACK)).imageFileName};
+        }
+        return lookups;
+    }
+}
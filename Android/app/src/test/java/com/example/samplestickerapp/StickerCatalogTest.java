@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.example.samplestickerapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StickerCatalogTest {
+
+    @Test
+    public void firstPackWinsOnDuplicateIdentifier() {
+        final StickerPack first = createStickerPack("pack", "first.webp");
+        final StickerPack second = createStickerPack("pack", "second.webp");
+        final StickerCatalog catalog = new StickerCatalog(Arrays.asList(first, second), null, null, 1);
+
+        assertSame(first, catalog.getStickerPack("pack"));
+        assertNotNull(catalog.getAsset("pack", "first.webp"));
+        assertNull(catalog.getAsset("pack", "second.webp"));
+    }
+
+    @Test
+    public void getAssetMissesUnknownFiles() {
+        final StickerCatalog catalog = new StickerCatalog(Collections.singletonList(createStickerPack("pack", "1.webp")), null, null, 1);
+
+        assertNull(catalog.getAsset("pack", "2.webp"));
+        assertNull(catalog.getAsset("other", "1.webp"));
+        assertTrue(catalog.getAssets("other").isEmpty());
+    }
+
+    @Test
+    public void trayImageIsIndexed() {
+        final StickerCatalog catalog = new StickerCatalog(Collections.singletonList(createStickerPack("pack", "1.webp")), null, null, 1);
+
+        final StickerAsset trayImage = catalog.getAsset("pack", "tray.png");
+        assertNotNull(trayImage);
+        assertTrue(trayImage.trayImage);
+        final StickerAsset sticker = catalog.getAsset("pack", "1.webp");
+        assertNotNull(sticker);
+        assertFalse(sticker.trayImage);
+        //the tray image comes first, then the stickers.
+        final List<StickerAsset> assets = catalog.getAssets("pack");
+        assertEquals(2, assets.size());
+        assertEquals("tray.png", assets.get(0).fileName);
+        assertEquals("1.webp", assets.get(1).fileName);
+    }
+
+    private static StickerPack createStickerPack(String identifier, String... fileNames) {
+        final StickerPack stickerPack = new StickerPack(identifier, "Pack", "publisher", "tray.png",
+                null, null, null, null, "1", false, false);
+        final List<Sticker> stickers = new ArrayList<>(fileNames.length);
+        for (String fileName : fileNames) {
+            stickers.add(new Sticker(fileName, Collections.singletonList("\u2615"), null));
+        }
+        stickerPack.setStickers(stickers);
+        return stickerPack;
+    }
+}